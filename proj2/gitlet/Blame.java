@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Finds the commit that last changed each line of a file.
+ * The lines of the blamed version are handed down the history from commit
+ * to parent. A commit whose version of the file is the same as a parent's
+ * hands all its lines to that parent without reading them, and the
+ * changed-path filters tell most such commits without reading trees.
+ * Otherwise its version is matched against each parent's with Diff.match,
+ * matched lines go to that parent, and the lines left are its own. Commits
+ * are visited newest first, and the walk ends as soon as no commit holds
+ * lines left to attribute. The result is kept, so blaming the file again
+ * at this commit, or at a later one whose history reaches it, stops here.
+ *
+ * @author Xiaoli Li
+ */
+public class Blame {
+    /** Stores the blame of a file at a commit, in a file named by the SHA1
+     * of the commit ID and the path. */
+    public static final File CACHE_DIR = join(GITLET_DIR, "blame");
+
+    /** A commit holding lines not attributed yet: its version of the file,
+     * and the line numbers of those lines in the blamed version mapped to
+     * their line numbers in its version. Two lines of the blamed version
+     * may come from the same line. */
+    private static class Suspect {
+        private final String commitID;
+        private final Commit commit;
+        private final Date date;
+        private final String blobID;
+        private final TreeMap<Integer, Integer> lines = new TreeMap<>();
+
+        Suspect(String commitID, String blobID) {
+            this.commitID = commitID;
+            this.commit = Commit.getCommit(commitID);
+            this.date = commit.getDate();
+            this.blobID = blobID;
+        }
+    }
+
+    private final String path;
+    /** Commit that last changed each line of the blamed version, and the
+     * line number there. */
+    private final String[] originCommits;
+    private final int[] originLines;
+    /** Suspects waiting to be visited, newest first, and by commit ID. */
+    private final PriorityQueue<Suspect> queue = new PriorityQueue<>(
+            (a, b) -> b.date.compareTo(a.date));
+    private final Map<String, Suspect> waiting = new HashMap<>();
+    /** Lines of the versions read so far, null for versions that are not text. */
+    private final Map<String, List<String>> versions = new HashMap<>();
+
+    private Blame(String path, int size) {
+        this.path = path;
+        this.originCommits = new String[size];
+        this.originLines = new int[size];
+    }
+
+    /** Writes each line of the file PATH at commit COMMITID to OUT, after
+     * the abbreviated ID and the date of the commit that last changed it
+     * and its line number. */
+    public static void write(String commitID, String path, OutputStream out)
+            throws IOException {
+        String blobID = Commit.getCommit(commitID).blobID(path);
+        if (blobID == null) {
+            throw error("File does not exist in that commit.");
+        }
+        byte[] contents = Blob.readBlobUpTo(blobID, Blob.DELTA_LIMIT);
+        if (contents == null || !Diff.isText(contents)) {
+            throw error("Cannot blame a binary file.");
+        }
+        List<String> lines = Diff.lines(contents);
+        Blame blame = new Blame(path, lines.size());
+        blame.versions.put(blobID, lines);
+        blame.run(commitID, blobID);
+
+        int width = String.valueOf(lines.size()).length();
+        for (int i = 0; i < lines.size(); i += 1) {
+            Commit origin = Commit.getCommit(blame.originCommits[i]);
+            String line = lines.get(i);
+            out.write(String.format("%s (%s %" + width + "d) ", blame.originCommits[i]
+                    .substring(0, 8), origin.getTimestamp(), i + 1)
+                    .getBytes(StandardCharsets.UTF_8));
+            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+            if (!line.endsWith("\n")) {
+                out.write('\n');
+            }
+        }
+    }
+
+    /** Attributes every line of BLOBID, the file at COMMITID, and keeps
+     * the result. */
+    private void run(String commitID, String blobID) {
+        TreeMap<Integer, Integer> lines = new TreeMap<>();
+        for (int i = 0; i < originCommits.length; i += 1) {
+            lines.put(i, i);
+        }
+        handTo(commitID, blobID, lines);
+        while (!queue.isEmpty()) {
+            Suspect suspect = queue.remove();
+            waiting.remove(suspect.commitID);
+            if (!fromCache(suspect)) {
+                handDown(suspect);
+            }
+        }
+        saveCache(commitID, blobID);
+    }
+
+    /** Hands the lines of SUSPECT to its parents, and attributes the lines
+     * none of them has to SUSPECT. */
+    private void handDown(Suspect suspect) {
+        Commit commit = suspect.commit;
+        String parent1 = commit.getParentID();
+        if (parent1 != null
+                && !ChangedPaths.mayHaveChanged(suspect.commitID, commit, path)) {
+            handTo(parent1, suspect.blobID, suspect.lines);
+            return;
+        }
+        List<String> parents = new ArrayList<>();
+        List<String> parentBlobs = new ArrayList<>();
+        for (String parentID : new String[] {parent1, commit.getSecondParentID()}) {
+            String parentBlob = parentID == null ? null
+                    : Commit.getCommit(parentID).blobID(path);
+            if (parentBlob == null) {
+                continue;
+            }
+            if (parentBlob.equals(suspect.blobID)) {
+                handTo(parentID, parentBlob, suspect.lines);
+                return;
+            }
+            parents.add(parentID);
+            parentBlobs.add(parentBlob);
+        }
+
+        TreeMap<Integer, Integer> left = new TreeMap<>(suspect.lines);
+        List<String> lines = linesOf(suspect.blobID);
+        for (int p = 0; p < parents.size() && !left.isEmpty(); p += 1) {
+            List<String> parentLines = linesOf(parentBlobs.get(p));
+            if (parentLines == null) {
+                continue;
+            }
+            int[] match = Diff.match(lines, parentLines);
+            TreeMap<Integer, Integer> matched = new TreeMap<>();
+            Iterator<Map.Entry<Integer, Integer>> iter = left.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Integer, Integer> entry = iter.next();
+                if (match[entry.getValue()] >= 0) {
+                    matched.put(entry.getKey(), match[entry.getValue()]);
+                    iter.remove();
+                }
+            }
+            if (!matched.isEmpty()) {
+                handTo(parents.get(p), parentBlobs.get(p), matched);
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : left.entrySet()) {
+            originCommits[entry.getKey()] = suspect.commitID;
+            originLines[entry.getKey()] = entry.getValue();
+        }
+    }
+
+    /** Gives LINES of the version BLOBID to the commit COMMITID, joining
+     * the lines it already waits with. A commit visited already is visited
+     * again with the new lines. */
+    private void handTo(String commitID, String blobID, Map<Integer, Integer> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        Suspect suspect = waiting.get(commitID);
+        if (suspect == null) {
+            suspect = new Suspect(commitID, blobID);
+            waiting.put(commitID, suspect);
+            queue.add(suspect);
+        }
+        suspect.lines.putAll(lines);
+    }
+
+    /** Returns the lines of a blob, or null if it is not text or too long
+     * to compare. Each version is read once. */
+    private List<String> linesOf(String blobID) {
+        if (!versions.containsKey(blobID)) {
+            byte[] contents = Blob.readBlobUpTo(blobID, Blob.DELTA_LIMIT);
+            versions.put(blobID, contents == null || !Diff.isText(contents)
+                    ? null : Diff.lines(contents));
+        }
+        return versions.get(blobID);
+    }
+
+    /** Attributes the lines of SUSPECT from a kept blame of the file at its
+     * commit. Returns false if there is none. */
+    private boolean fromCache(Suspect suspect) {
+        File file = cacheFile(suspect.commitID);
+        if (!file.isFile()) {
+            return false;
+        }
+        String[] records = readContentsAsString(file).split("\n");
+        if (!records[0].equals(suspect.blobID)) {
+            return false;
+        }
+        for (Map.Entry<Integer, Integer> entry : suspect.lines.entrySet()) {
+            String[] origin = records[entry.getValue() + 1].split(" ");
+            originCommits[entry.getKey()] = origin[0];
+            originLines[entry.getKey()] = Integer.parseInt(origin[1]);
+        }
+        return true;
+    }
+
+    /** Keeps the blame of the file at COMMITID, whose version is BLOBID:
+     * the blob ID, then the origin commit and line of each line. */
+    private void saveCache(String commitID, String blobID) {
+        StringBuilder records = new StringBuilder(blobID).append("\n");
+        for (int i = 0; i < originCommits.length; i += 1) {
+            records.append(originCommits[i]).append(" ").append(originLines[i]).append("\n");
+        }
+        CACHE_DIR.mkdir();
+        Journal.replace(cacheFile(commitID), records.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File cacheFile(String commitID) {
+        return join(CACHE_DIR, sha1(commitID, path));
+    }
+}
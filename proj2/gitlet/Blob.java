@@ -1,10 +1,31 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static gitlet.Repository.CWD;
-import static gitlet.Repository.OBJECTS_DIR;
 import static gitlet.Utils.*;
 import static gitlet.Utils.join;
 
@@ -15,26 +36,153 @@ import static gitlet.Utils.join;
  * @author Xiaoli Li
  */
 public class Blob {
-    /** Reads from file on disk, return the entire content as a string. */
-    public static String readFileFromDisc(String fileName) {
+    /** Size of the buffer used when streaming file contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Largest file stored as a delta, since deltas are computed in memory. */
+    public static final int DELTA_LIMIT = 64 << 20;
+    /** Number of files restored at the same time. Writers mostly wait on
+     * the disk, so more of them than cores keeps its queue full. */
+    private static final int WORKERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Returns SHA1 of the file on disk. The file is read in fixed-size
+     * chunks, so memory use does not depend on the file size. */
+    public static String fileSHA1(String fileName) {
         File file = join(CWD, fileName);
         if (!file.exists()) {
-            message("File does not exist.");
-            System.exit(0);
+            throw error("File does not exist.");
+        }
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return bytesToHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    /** Saves the file on disk as a blob object, unless the blob already exists.
+     * A file of at least Chunker.THRESHOLD bytes is split into chunks, of which
+     * only new ones are stored. A smaller file is stored as a delta against BASESHA1,
+     * its version in the parent commit, if that is less than half its size
+     * and the delta chain stays within MAX_DEPTH. Otherwise the bytes are
+     * streamed through the compressor, never held in memory. */
+    public static void writeFileToBlob(String fileName, String fileSHA1, String baseSHA1) {
+        if (ObjectStore.contains(fileSHA1, ObjectStore.BLOB)) {
+            return;
+        }
+        File file = join(CWD, fileName);
+        if (file.length() >= Chunker.THRESHOLD) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                Chunker.write(fileSHA1, in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        if (baseSHA1 != null && file.length() <= DELTA_LIMIT
+                && ObjectStore.depthOf(baseSHA1) < ObjectStore.MAX_DEPTH) {
+            byte[] base = readBlobUpTo(baseSHA1, DELTA_LIMIT);
+            if (base != null) {
+                byte[] target = readContents(file);
+                byte[] delta = Delta.encode(base, target);
+                if (delta.length < target.length / 2) {
+                    ObjectStore.writeDelta(fileSHA1, baseSHA1, delta);
+                    return;
+                }
+            }
+        }
+        try (InputStream in = Files.newInputStream(join(CWD, fileName).toPath())) {
+            ObjectStore.write(fileSHA1, ObjectStore.BLOB, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return readContentsAsString(file);
     }
-    /** Writes the updated string content back to file on disk. */
-    public static void writeFileToDisk(String fileContent, String fileName) {
-        writeContents(join(CWD, fileName), fileContent);
+    /** Restores the file on disk from a blob object. The content is written
+     * to a temporary file next to it, which then replaces the file, so the
+     * file is never seen half written. The temporary file is removed however
+     * the write fails. */
+    public static void writeBlobToFile(String fileSHA1, String fileName) {
+        File file = join(CWD, fileName);
+        file.getParentFile().mkdirs();
+        Path temp = file.toPath().resolveSibling("." + file.getName() + ".gitlet-tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                transferBlob(fileSHA1, out);
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            temp.toFile().delete();
+        }
     }
-    /** Reads from blob object, returns history file content. */
-    public static String readFileFromBlob(String fileSHA1) {
-        return readContentsAsString(join(OBJECTS_DIR, fileSHA1));
+    /** Restores many files on disk, given the mapping of file names to
+     * blob references. Files are written by a pool of WORKERS threads.
+     * Once all are written, they and their directories are synced to disk
+     * together, instead of waiting on the disk after every file. */
+    public static void writeBlobsToFiles(Map<String, String> filesMapping) {
+        if (filesMapping.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(WORKERS, filesMapping.size()));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Map.Entry<String, String> entry : filesMapping.entrySet()) {
+                tasks.add(pool.submit(() -> writeBlobToFile(entry.getValue(), entry.getKey())));
+            }
+            awaitAll(tasks);
+
+            Set<File> written = new HashSet<>();
+            for (String fileName : filesMapping.keySet()) {
+                File file = join(CWD, fileName);
+                written.add(file);
+                written.add(file.getParentFile());
+            }
+            tasks.clear();
+            for (File file : written) {
+                tasks.add(pool.submit(() -> fsync(file)));
+            }
+            awaitAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
     }
-    /** Saves the file content as a blob object. */
-    public static void writeFileToBlob(String fileContent, String fileSHA1) {
-        writeContents(join(OBJECTS_DIR, fileSHA1), fileContent);
+    /** Waits for all TASKS, rethrowing the first failure. */
+    private static void awaitAll(List<Future<?>> tasks) {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        }
+    }
+    /** Returns the content of a blob object, or null if it is longer than LIMIT. */
+    public static byte[] readBlobUpTo(String fileSHA1, int limit) {
+        try (InputStream in = ObjectStore.open(fileSHA1, ObjectStore.BLOB)) {
+            byte[] contents = in.readNBytes(limit + 1);
+            return contents.length > limit ? null : contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    /** Copies the content of a blob object into OUT. */
+    private static void transferBlob(String fileSHA1, OutputStream out) throws IOException {
+        try (InputStream in = ObjectStore.open(fileSHA1, ObjectStore.BLOB)) {
+            in.transferTo(out);
+        }
     }
     /** Checks if the file is staged to add. */
     public static boolean isStagedToAdd(String fileName, TreeMap<String, String> stagingArea) {
@@ -48,7 +196,7 @@ public class Blob {
     /** Checks if the file content is going to be overwritten by history content. */
     public static boolean isOverwrittenBy(String fileName, TreeMap<String, String> filesMapping) {
         return (join(CWD, fileName)).exists()
-                && !sha1(Blob.readFileFromDisc(fileName)).equals(filesMapping.get(fileName));
+                && !StatCache.sha1Of(fileName).equals(filesMapping.get(fileName));
     }
     /** Comparing to one common ancestor, checks if the file is modified
      * and not in the same way in two different branches. */
@@ -65,33 +213,59 @@ public class Blob {
         if (!currMapping.containsKey(fileName) && !otherMapping.containsKey(fileName)) {
             return false;
         }
-        if (currMapping.get(fileName).equals(otherMapping.get(fileName))) {
-            return false;
+        return !Objects.equals(currMapping.get(fileName), otherMapping.get(fileName));
+    }
+    /** Merges the changes made to a file in the current and given branches
+     * since their split point line by line, when both versions are text no
+     * larger than DELTA_LIMIT. Only regions changed on both sides in different
+     * ways are written between conflict markers. Otherwise, as when the file
+     * was deleted on one side, the whole file is a conflict. */
+    public static void mergeFile(String fileName,
+                                 TreeMap<String, String> splitMapping,
+                                 TreeMap<String, String> currMapping,
+                                 TreeMap<String, String> otherMapping) {
+        if (!currMapping.containsKey(fileName) || !otherMapping.containsKey(fileName)) {
+            handleConflict(fileName, currMapping, otherMapping);
+            return;
+        }
+        byte[] base = splitMapping.containsKey(fileName)
+                ? readBlobUpTo(splitMapping.get(fileName), DELTA_LIMIT) : new byte[0];
+        byte[] ours = readBlobUpTo(currMapping.get(fileName), DELTA_LIMIT);
+        byte[] theirs = readBlobUpTo(otherMapping.get(fileName), DELTA_LIMIT);
+        if (base == null || ours == null || theirs == null
+                || !Diff.isText(base) || !Diff.isText(ours) || !Diff.isText(theirs)) {
+            handleConflict(fileName, currMapping, otherMapping);
+            return;
+        }
+        boolean conflict;
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(join(CWD, fileName).toPath()))) {
+            conflict = Diff.merge(base, ours, theirs, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (conflict) {
+            message("Encountered a merge conflict.");
         }
-        return true;
     }
-    /** Updates file content when there is merge conflict. */
+    /** Writes both whole versions of a file between conflict markers. */
     public static void handleConflict(String fileName,
                                       TreeMap<String, String> currMapping,
                                       TreeMap<String, String> otherMapping) {
-        StringBuilder result = new StringBuilder();
-        result.append("<<<<<<< HEAD" + "\n");
-        String currFileContent = "";
-        if (currMapping.containsKey(fileName)) {
-            currFileContent = readFileFromBlob(currMapping.get(fileName));
-        }
-        result.append(currFileContent);
-
-        result.append("=======" + "\n");
-        String otherFileContent = "";
-        if (otherMapping.containsKey(fileName)) {
-            otherFileContent = readFileFromBlob(otherMapping.get(fileName));
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(join(CWD, fileName).toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (currMapping.containsKey(fileName)) {
+                transferBlob(currMapping.get(fileName), out);
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (otherMapping.containsKey(fileName)) {
+                transferBlob(otherMapping.get(fileName), out);
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        result.append(otherFileContent);
-        result.append(">>>>>>>" + "\n");
-
-        writeFileToDisk(result.toString(), fileName);
         message("Encountered a merge conflict.");
     }
 }
-
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Represents the changed-path filters of the commits of a repository.
+ * Each commit has a Bloom filter of the paths it changed from its first
+ * parent, files and the directories holding them, kept in one file next to
+ * the commit-graph. A path the filter does not contain was certainly not
+ * changed, so the history of a file skips most commits without reading
+ * their trees. A path it contains may have been changed, which is then
+ * checked against the trees.
+ *
+ * @author Xiaoli Li
+ */
+public class ChangedPaths {
+    /** Stores the ID, filter length and filter bits of each commit, in the
+     * order the filters were computed. */
+    public static final File FILTER_FILE = join(GITLET_DIR, "changed-paths");
+
+    /** Bits of filter per changed path, for about 1% false positives. */
+    private static final int BITS_PER_PATH = 10;
+    /** Bits set for each path. */
+    private static final int HASHES = 7;
+    /** Commits changing more paths than this get no filter, and every path
+     * may have been changed by them. */
+    private static final int MAX_PATHS = 512;
+    /** Filter length recorded for commits without a filter. */
+    private static final int TOO_MANY = -1;
+
+    /** Filters read from FILTER_FILE on first use, by commit ID. A null
+     * filter stands for TOO_MANY. */
+    private static Map<String, byte[]> filters;
+
+    /** Computes and appends the filter of a newly saved commit. */
+    public static void add(String commitID, Commit commit) {
+        byte[] filter = compute(commit);
+        append(commitID, filter);
+        if (filters != null) {
+            filters.put(commitID, filter);
+        }
+    }
+
+    /** Drops the loaded filters, so that they are read again on next use. */
+    public static void reload() {
+        filters = null;
+    }
+
+    /** Checks if the commit COMMITID may have changed PATH, a file or a
+     * directory, from its first parent. False means it certainly did not.
+     * A commit without a filter yet, made before filters existed, gets one
+     * now, so the next query skips it. */
+    public static boolean mayHaveChanged(String commitID, Commit commit, String path) {
+        if (filters == null) {
+            filters = read();
+        }
+        if (!filters.containsKey(commitID)) {
+            byte[] filter = compute(commit);
+            append(commitID, filter);
+            filters.put(commitID, filter);
+        }
+        byte[] filter = filters.get(commitID);
+        if (filter == null) {
+            return true;
+        } else if (filter.length == 0) {
+            return false;
+        }
+        for (int bit : bits(path, filter.length * 8)) {
+            if ((filter[bit / 8] & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the filter of the paths COMMIT changed from its first
+     * parent, or null if there are more than MAX_PATHS. */
+    private static byte[] compute(Commit commit) {
+        Set<String> paths = new HashSet<>();
+        for (String file : changedFiles(commit)) {
+            /** Adds the file and each directory leading to it. */
+            for (int slash = file.indexOf('/'); slash >= 0; slash = file.indexOf('/', slash + 1)) {
+                paths.add(file.substring(0, slash));
+            }
+            paths.add(file);
+        }
+        if (paths.size() > MAX_PATHS) {
+            return null;
+        }
+        byte[] filter = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        for (String path : paths) {
+            for (int bit : bits(path, filter.length * 8)) {
+                filter[bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        return filter;
+    }
+
+    /** Returns the files COMMIT changed, added or removed from its first
+     * parent. Commits with root trees are compared tree by tree, skipping
+     * directories that did not change. */
+    private static Set<String> changedFiles(Commit commit) {
+        Commit parent = Commit.getCommit(commit.getParentID());
+        if (commit.hasTree() && (parent == null || parent.hasTree())) {
+            return Tree.diff(parent == null ? null : parent.getTreeID(), commit.getTreeID());
+        }
+        Map<String, String> before = parent == null
+                ? Collections.emptyMap() : parent.getFilesMapping();
+        Map<String, String> after = commit.getFilesMapping();
+        Set<String> files = new TreeSet<>();
+        for (String file : after.keySet()) {
+            if (!after.get(file).equals(before.get(file))) {
+                files.add(file);
+            }
+        }
+        for (String file : before.keySet()) {
+            if (!after.containsKey(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /** Returns the HASHES bit positions of PATH in a filter of SIZE bits,
+     * by double hashing the two halves of its 64-bit FNV-1a hash. */
+    private static int[] bits(String path, int size) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int[] bits = new int[HASHES];
+        for (int i = 0; i < HASHES; i += 1) {
+            bits[i] = Math.floorMod(h1 + i * h2, size);
+        }
+        return bits;
+    }
+
+    /** Appends the filter of one commit to FILTER_FILE in a single write. */
+    private static void append(String commitID, byte[] filter) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeRecord(out, commitID, filter);
+        } catch (IOException excp) {
+            throw error("Internal error encoding changed paths.");
+        }
+        try {
+            Files.write(FILTER_FILE.toPath(), bytes.toByteArray(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw error("Cannot write changed paths.");
+        }
+    }
+
+    /** Reads all filters. A record cut short by a crash is dropped, and the
+     * file rewritten without it, so later records are not appended after it. */
+    private static Map<String, byte[]> read() {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        if (!FILTER_FILE.exists()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(FILTER_FILE.toPath())))) {
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (in.available() > 0) {
+                in.readFully(id);
+                int length = in.readInt();
+                if (length < TOO_MANY || length > (MAX_PATHS * BITS_PER_PATH + 7) / 8) {
+                    throw new EOFException();
+                }
+                byte[] filter = null;
+                if (length != TOO_MANY) {
+                    filter = new byte[length];
+                    in.readFully(filter);
+                }
+                result.put(bytesToHex(id), filter);
+            }
+        } catch (EOFException excp) {
+            rewrite(result);
+        } catch (IOException excp) {
+            throw error("Cannot read changed paths.");
+        }
+        return result;
+    }
+
+    /** Replaces FILTER_FILE with the records of FILTERS. */
+    private static void rewrite(Map<String, byte[]> filters) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : filters.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding changed paths.");
+        }
+        Journal.replace(FILTER_FILE, bytes.toByteArray());
+    }
+
+    private static void writeRecord(DataOutputStream out, String commitID, byte[] filter)
+            throws IOException {
+        out.write(hexToBytes(commitID));
+        if (filter == null) {
+            out.writeInt(TOO_MANY);
+        } else {
+            out.writeInt(filter.length);
+            out.write(filter);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** Content-defined chunking of large blobs.
+ * A large file is cut into chunks where a Gear rolling hash of the last 64
+ * bytes matches a mask, so boundaries depend on the content around them and
+ * an edit in the middle of a file only changes the chunks it touches. Each
+ * chunk is stored once as an object named by its SHA1, and the blob itself
+ * is stored as the list of its chunks.
+ *
+ * @author Xiaoli Li
+ */
+public class Chunker {
+    /** Files at least this large are chunked. Set with -Dgitlet.chunkThreshold=BYTES. */
+    public static final long THRESHOLD = Long.getLong("gitlet.chunkThreshold", 8 << 20);
+    /** Bounds of the size of a chunk. */
+    private static final int MIN_SIZE = 16 << 10;
+    private static final int MAX_SIZE = 256 << 10;
+    /** A boundary is where the top 16 bits of the hash are zero, which
+     * makes chunks 64 KB long on average past MIN_SIZE. */
+    private static final long MASK = 0xffffL << 48;
+    /** Random values mixed into the hash for each byte. The seed is fixed,
+     * since boundaries must be the same in every run. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(61);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Chunks already saved by this run, so threads adding files at the same
+     * time do not write the same chunk twice. */
+    private static final Set<String> SAVED = ConcurrentHashMap.newKeySet();
+
+    /** A chunk of a blob: the ID of the chunk object and its length. */
+    public static class Chunk {
+        private final String id;
+        private final int length;
+
+        public Chunk(String id, int length) {
+            this.id = id;
+            this.length = length;
+        }
+
+        public String getID() {
+            return this.id;
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+    }
+
+    /** Saves the contents read from IN as the chunked blob BLOBID. Only
+     * chunks not already stored are written, and at most MAX_SIZE bytes
+     * of the file are held in memory. */
+    public static void write(String blobID, InputStream in) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] buffer = new byte[MAX_SIZE];
+        int length = 0;
+        boolean end = false;
+        while (!end || length > 0) {
+            if (!end) {
+                int read = in.readNBytes(buffer, length, MAX_SIZE - length);
+                length += read;
+                end = length < MAX_SIZE;
+            }
+            int cut = boundary(buffer, length);
+            chunks.add(save(Arrays.copyOf(buffer, cut)));
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+        }
+        ObjectStore.writeChunked(blobID, chunks);
+    }
+
+    /** Returns the length of the first chunk of the LENGTH bytes of BUFFER.
+     * Hashing starts just before MIN_SIZE, as a boundary depends only on
+     * the last 64 bytes. */
+    private static int boundary(byte[] buffer, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        long hash = 0;
+        for (int i = MIN_SIZE - 64; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if (i + 1 >= MIN_SIZE && (hash & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /** Saves a chunk unless it is already stored, and returns it. */
+    private static Chunk save(byte[] contents) {
+        String id = sha1(contents);
+        if (SAVED.add(id) && !ObjectStore.contains(id, ObjectStore.BLOB)) {
+            ObjectStore.write(id, ObjectStore.BLOB, new ByteArrayInputStream(contents));
+        }
+        return new Chunk(id, contents.length);
+    }
+}
@@ -0,0 +1,59 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** Thin client of the gitlet daemon.
+ * Sends a command to the daemon of the repository in the current directory
+ * and prints its output. When no daemon is running, the command is run in
+ * this JVM instead, so the client can always stand in for gitlet.Main.
+ * Only JDK classes are loaded unless it has to fall back.
+ *
+ *  @author Xiaoli Li
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main. */
+    public static void main(String[] args) {
+        if (!send(args)) {
+            Main.main(args);
+        }
+    }
+
+    /** Sends ARGS to the daemon and copies its output to System.out.
+     * Returns false if no daemon is listening. A request is the number of
+     * arguments followed by each argument in modified UTF-8, and the reply
+     * is the output of the command, ended by closing the connection. */
+    public static boolean send(String[] args) {
+        Path socket = Paths.get(System.getProperty("user.dir"), ".gitlet", "daemon.sock");
+        if (!socket.toFile().exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            byte[] reply = Channels.newInputStream(channel).readAllBytes();
+            System.out.print(new String(reply, StandardCharsets.UTF_8));
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
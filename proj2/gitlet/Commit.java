@@ -1,23 +1,54 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
+ * Commits are stored in a compact binary encoding, and the commit ID is the
+ * SHA1 of that encoding. A commit refers to the root tree of its files, so
+ * its size does not grow with the number of tracked files. Commits written
+ * with Java serialization, or with the file table of encoding version 1,
+ * can still be read.
  *
  *  @author Xiaoli Li
  *  */
 public class Commit implements Serializable {
+    /** Keeps commits serialized by earlier versions of this class readable. */
+    private static final long serialVersionUID = 8596758879809719633L;
+
+    /** Starts every encoded commit. Serialized commits start with 0xACED. */
+    private static final byte[] MAGIC = "GCMT".getBytes(StandardCharsets.UTF_8);
+    /** Version of the encoding. */
+    private static final int VERSION = 2;
+    /** Version of the encoding that lists every tracked file. */
+    private static final int FILE_TABLE_VERSION = 1;
+
+    /** Commits decoded during this run. They are shared by every caller,
+     * so their file mappings must not be modified. */
+    public static final ObjectCache<Commit> CACHE = new ObjectCache<>("commit", 8 << 20);
 
     private final String message;
     private final String timestamp;
     private final String parentID;
     private String secondParentID;
+    /** File table of commits stored without a root tree. Commits with a
+     * root tree flatten it on each use instead of keeping it, so a cached
+     * commit weighs no more than its encoding. */
     private TreeMap<String, String> filesMapping;
+    /** Computed from filesMapping on first use for older commits. */
+    private String treeID;
 
     /** No-argument constructor for the initial commit. */
     public Commit() {
@@ -28,12 +59,23 @@ public class Commit implements Serializable {
     }
 
     /** Constructor with arguments. */
-    public Commit(String message, String parentID, TreeMap<String, String> filesMapping) {
+    public Commit(String message, String parentID, String treeID) {
         this.message = message;
         this.timestamp = String.format("%ta %<tb %<te %<tT %<tY %<tz", new Date());
         this.parentID = parentID;
-        this.filesMapping = new TreeMap<>();
-        this.filesMapping.putAll(filesMapping);
+        this.treeID = treeID;
+    }
+
+    /** Constructor used when decoding a stored commit, which has either
+     * a root tree or a file table. */
+    private Commit(String message, String timestamp, String parentID,
+                   String secondParentID, String treeID, TreeMap<String, String> filesMapping) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parentID = parentID;
+        this.secondParentID = secondParentID;
+        this.treeID = treeID;
+        this.filesMapping = filesMapping;
     }
 
     public String getMessage() {
@@ -44,6 +86,15 @@ public class Commit implements Serializable {
         return this.timestamp;
     }
 
+    /** Returns the time the commit was made, read back from its timestamp. */
+    public Date getDate() {
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z").parse(timestamp);
+        } catch (ParseException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     public String getParentID() {
         return this.parentID;
     }
@@ -58,13 +109,145 @@ public class Commit implements Serializable {
 
     /** Stores a mapping of file names to blob references. */
     public TreeMap<String, String> getFilesMapping() {
+        if (this.filesMapping == null) {
+            return Tree.flatten(this.treeID);
+        }
         return this.filesMapping;
     }
-    /** Saves commit object to disk. */
+
+    /** Checks if the commit refers to a root tree, rather than only
+     * having the file table of an older encoding. */
+    public boolean hasTree() {
+        return this.treeID != null;
+    }
+
+    /** Returns the ID of the blob of the file PATH in this commit, or an ID
+     * standing for the contents of the directory PATH, or null if the commit
+     * has neither. Commits with a root tree only read the trees on the way. */
+    public String entryID(String path) {
+        if (this.treeID != null) {
+            return Tree.lookup(this.treeID, path);
+        }
+        if (this.filesMapping.containsKey(path)) {
+            return this.filesMapping.get(path);
+        }
+        /** The files under PATH sort between PATH/ and PATH0, as '0' follows '/'. */
+        SortedMap<String, String> files = this.filesMapping.subMap(path + "/", path + "0");
+        return files.isEmpty() ? null : sha1(files.toString());
+    }
+
+    /** Returns the ID of the blob of the file PATH in this commit, or null
+     * if the commit has no such file. */
+    public String blobID(String path) {
+        if (this.treeID != null) {
+            return Tree.lookupFile(this.treeID, path);
+        }
+        return this.filesMapping.get(path);
+    }
+
+    /** Returns the ID of the root tree, writing the trees of a commit
+     * that only has a file table. */
+    public String getTreeID() {
+        if (this.treeID == null) {
+            this.treeID = Tree.update(null, this.filesMapping);
+        }
+        return this.treeID;
+    }
+
+    /** Returns the commit ID, the SHA1 of the encoded commit. */
+    public String getCommitID() {
+        return sha1(encode());
+    }
+
+    /** Returns the binary encoding of this commit: MAGIC, VERSION, the
+     * length-prefixed message, timestamp and parent IDs, then the raw bytes
+     * of the root tree ID. */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeField(out, message);
+            writeField(out, timestamp);
+            writeField(out, parentID);
+            writeField(out, secondParentID);
+            out.write(hexToBytes(getTreeID()));
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Checks if BYTES starts like an encoded commit. */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= MAGIC.length
+                && Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /** Returns the commit stored as BYTES, either encoded or serialized. */
+    public static Commit decode(byte[] bytes) {
+        if (!isEncoded(bytes)) {
+            return deserialize(bytes, Commit.class);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.skipBytes(MAGIC.length);
+            int version = in.readUnsignedByte();
+            if (version != VERSION && version != FILE_TABLE_VERSION) {
+                throw error("Unknown commit version %d.", version);
+            }
+            String message = readField(in);
+            String timestamp = readField(in);
+            String parentID = readField(in);
+            String secondParentID = readField(in);
+            if (version == VERSION) {
+                byte[] treeID = new byte[UID_LENGTH / 2];
+                in.readFully(treeID);
+                return new Commit(message, timestamp, parentID, secondParentID,
+                        bytesToHex(treeID), null);
+            }
+            /** Version 1 lists the name and raw blob SHA1 of every tracked file. */
+            TreeMap<String, String> filesMapping = new TreeMap<>();
+            int size = in.readInt();
+            byte[] blobID = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < size; i += 1) {
+                String fileName = readField(in);
+                in.readFully(blobID);
+                filesMapping.put(fileName, bytesToHex(blobID));
+            }
+            return new Commit(message, timestamp, parentID, secondParentID, null, filesMapping);
+        } catch (IOException excp) {
+            throw error("Internal error decoding commit.");
+        }
+    }
+
+    /** Writes a length-prefixed UTF-8 string, with -1 standing for null. */
+    private static void writeField(DataOutputStream out, String field) throws IOException {
+        if (field == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readField(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Saves commit object to disk and records it in the commit-graph,
+     * the commit index and the changed-path filters. */
     public void saveCommit(String commitID) {
-        String abbrCommitID = commitID.substring(0, 8);
-        File commit = join(OBJECTS_DIR, abbrCommitID);
-        writeObject(commit, this);
+        ObjectStore.write(commitID, ObjectStore.COMMIT, new ByteArrayInputStream(encode()));
+        CommitGraph.add(commitID, parentID, secondParentID);
+        CommitIndex.add(commitID, this);
+        ChangedPaths.add(commitID, this);
     }
 
     /** Returns the commit of the current branch. */
@@ -73,91 +256,63 @@ public class Commit implements Serializable {
         return getCommit(commitID);
     }
 
-    /** Returns the commit with given commit ID. */
+    /** Returns the commit with given commit ID, decoding it only the first
+     * time it is asked for. */
     public static Commit getCommit(String commitID) {
         if (commitID == null) {
             return null;
         }
-        String abbrCommitID = commitID.substring(0, 8);
-        File commit = join(OBJECTS_DIR, abbrCommitID);
-        if (!commit.exists()) {
-            message("No commit with that id exists.");
-            System.exit(0);
+        String id = resolveID(commitID);
+        Commit commit = CACHE.get(id);
+        if (commit != null) {
+            return commit;
         }
-        return readObject(commit, Commit.class);
+        byte[] bytes = ObjectStore.read(id, ObjectStore.COMMIT);
+        if (bytes == null) {
+            throw error("No commit with that id exists.");
+        }
+        commit = decode(bytes);
+        CACHE.put(id, commit, bytes.length);
+        return commit;
     }
 
-    /** Generates file names array of all commits.
-     * The length of commit file name should be 8. */
-    public static List<String> commitFileNames() {
-        List<String> files = plainFilenamesIn(OBJECTS_DIR);
-        List<String> commitFiles = new ArrayList<>();
-        for (String file : files) {
-            if (file.length() <= 8) {
-                commitFiles.add(file);
-            }
+    /** Returns the full ID of the commit whose ID starts with PREFIX.
+     * A full ID is returned as it is, without looking it up. */
+    public static String resolveID(String prefix) {
+        if (prefix.length() == UID_LENGTH) {
+            return prefix;
         }
-        return commitFiles;
+        List<String> ids = ObjectStore.matching(prefix, ObjectStore.COMMIT);
+        if (ids.isEmpty()) {
+            throw error("No commit with that id exists.");
+        }
+        if (ids.size() > 1) {
+            throw error("Ambiguous commit id.");
+        }
+        return ids.get(0);
     }
 
-    /** Checks if one branch is the ancestor of current branch. */
-    public static boolean isAncestor(String otherBranchPointer, String currBranchPointer) {
-        while (currBranchPointer != null) {
-            if (currBranchPointer.equals(otherBranchPointer)) {
-                return true;
+    /** Returns the IDs of all commits, loose or packed. */
+    public static List<String> commitIDs() {
+        TreeSet<String> commitIDs = new TreeSet<>();
+        for (Map.Entry<String, File> entry : ObjectStore.looseObjects().entrySet()) {
+            if (ObjectStore.typeOf(entry.getValue()) == ObjectStore.COMMIT) {
+                commitIDs.add(entry.getKey());
             }
-            currBranchPointer = Commit.getCommit(currBranchPointer).getParentID();
         }
-        return false;
+        commitIDs.addAll(Pack.objectIDs("", ObjectStore.COMMIT));
+        return new ArrayList<>(commitIDs);
     }
 
-    /** Returns all the ancestors of a given commit,
-     * including second parents introduced by merging. */
-    public static ArrayList<String> findAncestors(String commitID) {
-        ArrayList<String> ancestors = new ArrayList<>();
-        Queue<String> parents = new ArrayDeque<>();
-
-        ancestors.add(commitID);
-        parents.add(commitID);
-
-        while (!parents.isEmpty()) {
-            String aCommit = parents.remove();
-            Commit commit = Commit.getCommit(aCommit);
-
-            String parent1 = commit.getParentID();
-            if (parent1 != null && !ancestors.contains(parent1)) {
-                ancestors.add(parent1);
-                parents.add(parent1);
-            }
-
-            String parent2 = commit.getSecondParentID();
-            if (parent2 != null && !ancestors.contains(parent2)) {
-                ancestors.add(parent2);
-                parents.add(parent2);
-            }
-        }
-        return ancestors;
+    /** Checks if one branch is the ancestor of current branch. */
+    public static boolean isAncestor(String otherBranchPointer, String currBranchPointer) {
+        return CommitGraph.isAncestor(otherBranchPointer, currBranchPointer);
     }
 
     /** Returns the latest common ancestor of two branches. */
     public static String findSpitPoint(String branch1, String branch2) {
         String commitID1 = Repository.getBranchPointer(branch1);
         String commitID2 = Repository.getBranchPointer(branch2);
-
-        ArrayList<String> commit1Ancestors = findAncestors(commitID1);
-        ArrayList<String> commit2Ancestors = findAncestors(commitID2);
-
-        String latestCommonAncestor = null;
-        for (String ancestor : commit2Ancestors) {
-            if (commit1Ancestors.contains(ancestor)) {
-                latestCommonAncestor = ancestor;
-                break;
-            }
-        }
-        return latestCommonAncestor;
+        return CommitGraph.findSplitPoint(commitID1, commitID2);
     }
 }
-
-
-
-
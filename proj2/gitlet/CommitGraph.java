@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Represents the commit-graph file of a gitlet repository.
+ * Each commit has a fixed-size record holding its SHA-1, the record
+ * positions of its parents and its generation number. A commit is always
+ * appended after its parents, so ancestry queries walk records by position
+ * and never deserialize a Commit object.
+ *
+ * @author Xiaoli Li
+ */
+public class CommitGraph {
+    /** Stores one record per commit, in the order commits are created. */
+    public static final File GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+
+    /** SHA-1, first parent, second parent and generation number. */
+    private static final int RECORD_SIZE = UID_LENGTH / 2 + 4 + 4 + 4;
+    /** Marks a missing parent. */
+    private static final int NONE = -1;
+
+    /** Records of the graph file, loaded on first use. */
+    private static ByteBuffer graph;
+    /** Maps commit IDs to their record positions, built from the loaded
+     * graph on first lookup. */
+    private static Map<String, Integer> positions;
+
+    /** Appends a record for a newly saved commit.
+     * Generation number is one more than the largest of its parents. */
+    public static void add(String commitID, String parentID, String secondParentID) {
+        /** A record cut short by a crash is dropped with the rest of the file. */
+        if (parentID != null && (!GRAPH_FILE.exists() || GRAPH_FILE.length() % RECORD_SIZE != 0)) {
+            rebuild();
+        }
+        int parent1 = parentID == null ? NONE : position(parentID);
+        int parent2 = secondParentID == null ? NONE : position(secondParentID);
+        int generation = 1 + Math.max(generationAt(parent1), generationAt(parent2));
+        int index = getGraph().capacity() / RECORD_SIZE;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(hexToBytes(commitID));
+        record.putInt(parent1);
+        record.putInt(parent2);
+        record.putInt(generation);
+        try {
+            Files.write(GRAPH_FILE.toPath(), record.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw error("Cannot write commit-graph.");
+        }
+        graph = null;
+        if (positions != null) {
+            positions.put(commitID, index);
+        }
+    }
+
+    /** Drops the loaded graph, so that it is read again on next use. */
+    public static void reload() {
+        graph = null;
+        positions = null;
+    }
+
+    /** Returns the number of commits in the graph. */
+    public static int size() {
+        return getGraph().capacity() / RECORD_SIZE;
+    }
+
+    /** Checks if the commit ANCESTORID is reachable from COMMITID
+     * through any parents. Commits whose generation is not larger than
+     * the ancestor's cannot lead to it, so they are not expanded. */
+    public static boolean isAncestor(String ancestorID, String commitID) {
+        int target = position(ancestorID);
+        int start = position(commitID);
+        int targetGeneration = generationAt(target);
+
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            if (i == target) {
+                return true;
+            }
+            if (generationAt(i) <= targetGeneration || !visited.add(i)) {
+                continue;
+            }
+            for (int parent : parentsAt(i)) {
+                stack.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /** Returns the latest common ancestor of two commits.
+     * Walks down from both commits in order of decreasing generation,
+     * marking which side reached each commit. The first commit reached from
+     * both sides has the largest generation among the common ancestors. */
+    public static String findSplitPoint(String commitID1, String commitID2) {
+        int start1 = position(commitID1);
+        int start2 = position(commitID2);
+        Map<Integer, Integer> sides = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (a, b) -> generationAt(b) != generationAt(a)
+                        ? generationAt(b) - generationAt(a) : b - a);
+
+        sides.put(start1, 1);
+        sides.merge(start2, 2, (a, b) -> a | b);
+        queue.add(start1);
+        if (start2 != start1) {
+            queue.add(start2);
+        }
+        while (!queue.isEmpty()) {
+            int i = queue.remove();
+            int side = sides.get(i);
+            if (side == 3) {
+                return idAt(i);
+            }
+            for (int parent : parentsAt(i)) {
+                Integer parentSide = sides.get(parent);
+                if (parentSide == null) {
+                    sides.put(parent, side);
+                    queue.add(parent);
+                } else {
+                    sides.put(parent, parentSide | side);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the record position of the given commit.
+     * A commit missing from the graph means the file is stale, so the
+     * graph is rebuilt once before giving up. */
+    private static int position(String commitID) {
+        Integer i = positions().get(commitID);
+        if (i == null) {
+            rebuild();
+            i = positions().get(commitID);
+        }
+        if (i == null) {
+            throw error("Commit %s is missing from commit-graph.", commitID);
+        }
+        return i;
+    }
+
+    /** Returns the positions of all records, reading every record ID once
+     * per load of the graph rather than scanning them on each lookup. */
+    private static Map<String, Integer> positions() {
+        if (positions == null) {
+            int size = size();
+            positions = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i += 1) {
+                positions.put(idAt(i), i);
+            }
+        }
+        return positions;
+    }
+
+    private static String idAt(int i) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        getGraph().get(i * RECORD_SIZE, id);
+        return bytesToHex(id);
+    }
+
+    private static int[] parentsAt(int i) {
+        ByteBuffer records = getGraph();
+        int parent1 = records.getInt(i * RECORD_SIZE + UID_LENGTH / 2);
+        int parent2 = records.getInt(i * RECORD_SIZE + UID_LENGTH / 2 + 4);
+        if (parent1 == NONE) {
+            return new int[0];
+        } else if (parent2 == NONE) {
+            return new int[] {parent1};
+        }
+        return new int[] {parent1, parent2};
+    }
+
+    /** Returns the generation number of a record, 0 for a missing parent. */
+    private static int generationAt(int i) {
+        if (i == NONE) {
+            return 0;
+        }
+        return getGraph().getInt(i * RECORD_SIZE + UID_LENGTH / 2 + 8);
+    }
+
+    private static ByteBuffer getGraph() {
+        if (graph == null) {
+            if (!GRAPH_FILE.exists()) {
+                return ByteBuffer.allocate(0);
+            }
+            try (FileChannel channel = FileChannel.open(GRAPH_FILE.toPath())) {
+                graph = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw error("Cannot read commit-graph.");
+            }
+        }
+        return graph;
+    }
+
+    /** Rewrites the graph from every commit reachable from a branch,
+     * for repositories created before the graph existed. Each commit is
+     * written after both of its parents. */
+    private static void rebuild() {
+        List<String> order = new ArrayList<>();
+        Map<String, String[]> parents = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String branch : Repository.branchNames()) {
+            stack.push(Repository.getBranchPointer(branch));
+        }
+        /** Depth-first, a commit is emitted once its parents have been. */
+        Set<String> emitted = new HashSet<>();
+        while (!stack.isEmpty()) {
+            String commitID = stack.peek();
+            if (emitted.contains(commitID)) {
+                stack.pop();
+                continue;
+            }
+            String[] commitParents = parents.computeIfAbsent(commitID, id -> {
+                Commit commit = Commit.getCommit(id);
+                return new String[] {commit.getParentID(), commit.getSecondParentID()};
+            });
+            boolean ready = true;
+            for (String parent : commitParents) {
+                if (parent != null && !emitted.contains(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                emitted.add(commitID);
+                order.add(commitID);
+            }
+        }
+        Map<String, Integer> positions = new HashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(order.size() * RECORD_SIZE);
+        int[] generations = new int[order.size()];
+        for (String commitID : order) {
+            String[] commitParents = parents.get(commitID);
+            int i = positions.size();
+            int parent1 = commitParents[0] == null ? NONE : positions.get(commitParents[0]);
+            int parent2 = commitParents[1] == null ? NONE : positions.get(commitParents[1]);
+            generations[i] = 1 + Math.max(parent1 == NONE ? 0 : generations[parent1],
+                    parent2 == NONE ? 0 : generations[parent2]);
+            records.put(hexToBytes(commitID));
+            records.putInt(parent1);
+            records.putInt(parent2);
+            records.putInt(generations[i]);
+            positions.put(commitID, i);
+        }
+        Journal.replace(GRAPH_FILE, records.array());
+        graph = null;
+        CommitGraph.positions = null;
+    }
+}
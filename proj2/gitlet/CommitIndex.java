@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Represents the commit index of a gitlet repository.
+ * It keeps the ID, message, timestamp and parents of every commit in one
+ * file, so that global-log reads a single file instead of deserializing
+ * every commit in the objects directory. A second file is a hash table of
+ * commit IDs by the SHA-1 of their message, so find only reads the records
+ * of one bucket.
+ *
+ * @author Xiaoli Li
+ */
+public class CommitIndex {
+    /** Stores one entry per commit, in the order commits are created. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "commit-index");
+    /** Starts with the offset of the latest record of each bucket, followed
+     * by one record per commit: the SHA-1 of its message, its ID and the
+     * offset of the previous record of the same bucket. */
+    public static final File MESSAGES_FILE = join(GITLET_DIR, "commit-messages");
+
+    /** Number of buckets of MESSAGES_FILE, a power of two. */
+    private static final int BUCKETS = 4096;
+    private static final int HEADER_SIZE = BUCKETS * 4;
+    /** Two raw SHA-1s and an offset. */
+    private static final int RECORD_SIZE = UID_LENGTH + 4;
+    /** Ends the records of a bucket. Offset 0 is in the header. */
+    private static final int EMPTY = 0;
+
+    /** The indexed information of one commit. */
+    public static class Entry {
+        private final String commitID;
+        private final String message;
+        private final String timestamp;
+        private final String parentID;
+        private final String secondParentID;
+
+        Entry(String commitID, String message, String timestamp,
+              String parentID, String secondParentID) {
+            this.commitID = commitID;
+            this.message = message;
+            this.timestamp = timestamp;
+            this.parentID = parentID;
+            this.secondParentID = secondParentID;
+        }
+
+        public String getCommitID() {
+            return this.commitID;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        public String getTimestamp() {
+            return this.timestamp;
+        }
+
+        public String getParentID() {
+            return this.parentID;
+        }
+
+        public String getSecondParentID() {
+            return this.secondParentID;
+        }
+    }
+
+    /** Appends the entry of a newly saved commit.
+     * Without an index yet, builds it from all commits, this one included. */
+    public static void add(String commitID, Commit commit) {
+        if (!INDEX_FILE.exists()) {
+            MESSAGES_FILE.delete();
+            rebuild();
+            return;
+        }
+        append(Collections.singletonList(new Entry(commitID, commit.getMessage(),
+                commit.getTimestamp(), commit.getParentID(), commit.getSecondParentID())), true);
+        addMessage(commitID, commit.getMessage());
+    }
+
+    /** Returns the entries of all commits ever made, read sequentially from
+     * the index file. A missing index, or one that lacks commits known to the
+     * commit-graph or the current branch head, is rebuilt first. */
+    public static List<Entry> entries() {
+        List<Entry> entries = INDEX_FILE.exists() ? read() : null;
+        if (entries == null || isStale(entries)) {
+            entries = rebuild();
+        }
+        return entries;
+    }
+
+    /** Returns the IDs of all commits with the given message, in the order
+     * they were indexed. A missing or damaged message table, or one that
+     * lacks commits known to the commit-graph or the current branch head,
+     * is rebuilt from the entries first. */
+    public static List<String> find(String message) {
+        List<String> commitIDs = lookup(message);
+        if (commitIDs == null || !hasAllMessages()) {
+            rebuildMessages(entries());
+            commitIDs = lookup(message);
+        }
+        return commitIDs;
+    }
+
+    /** Checks if the message table has as many records as the commit-graph
+     * and holds the current branch head, looked up by its message. */
+    private static boolean hasAllMessages() {
+        if ((MESSAGES_FILE.length() - HEADER_SIZE) / RECORD_SIZE < CommitGraph.size()) {
+            return false;
+        }
+        String head = Repository.getCurrentBranchPointer();
+        List<String> commitIDs = lookup(Commit.getCommit(head).getMessage());
+        return commitIDs != null && commitIDs.contains(head);
+    }
+
+    /** Returns the IDs of the commits recorded with MESSAGE, reading only
+     * its bucket, or null if the table is missing or cut short. */
+    private static List<String> lookup(String message) {
+        if (!MESSAGES_FILE.exists()) {
+            return null;
+        }
+        byte[] key = hexToBytes(sha1(message));
+        try (RandomAccessFile file = new RandomAccessFile(MESSAGES_FILE, "r")) {
+            long length = file.length();
+            if (length < HEADER_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0) {
+                return null;
+            }
+            LinkedList<String> commitIDs = new LinkedList<>();
+            byte[] recordKey = new byte[key.length];
+            byte[] commitID = new byte[UID_LENGTH / 2];
+            file.seek(bucketOf(key) * 4L);
+            int offset = file.readInt();
+            /** Records are linked from the latest, so each is put first. */
+            while (offset != EMPTY) {
+                file.seek(offset);
+                file.readFully(recordKey);
+                file.readFully(commitID);
+                if (Arrays.equals(recordKey, key)) {
+                    commitIDs.addFirst(bytesToHex(commitID));
+                }
+                offset = file.readInt();
+            }
+            return commitIDs;
+        } catch (IOException excp) {
+            throw error("Cannot read commit messages.");
+        }
+    }
+
+    /** Records the message of a newly indexed commit. A missing or damaged
+     * table is left to be rebuilt by the next find. */
+    private static void addMessage(String commitID, String message) {
+        if (!MESSAGES_FILE.exists()) {
+            return;
+        }
+        byte[] key = hexToBytes(sha1(message));
+        boolean damaged;
+        try (RandomAccessFile file = new RandomAccessFile(MESSAGES_FILE, "rw")) {
+            long length = file.length();
+            damaged = length < HEADER_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0;
+            if (!damaged) {
+                file.seek(bucketOf(key) * 4L);
+                int previous = file.readInt();
+                file.seek(length);
+                file.write(key);
+                file.write(hexToBytes(commitID));
+                file.writeInt(previous);
+                /** The bucket points to the record only once it is complete. */
+                file.seek(bucketOf(key) * 4L);
+                file.writeInt((int) length);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write commit messages.");
+        }
+        if (damaged) {
+            MESSAGES_FILE.delete();
+        }
+    }
+
+    /** Rewrites the message table from ENTRIES, in order. */
+    private static void rebuildMessages(List<Entry> entries) {
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + entries.size() * RECORD_SIZE);
+        int offset = HEADER_SIZE;
+        for (Entry entry : entries) {
+            byte[] key = hexToBytes(sha1(entry.getMessage()));
+            int bucket = bucketOf(key) * 4;
+            table.put(offset, key);
+            table.put(offset + key.length, hexToBytes(entry.getCommitID()));
+            table.putInt(offset + RECORD_SIZE - 4, table.getInt(bucket));
+            table.putInt(bucket, offset);
+            offset += RECORD_SIZE;
+        }
+        Journal.replace(MESSAGES_FILE, table.array());
+    }
+
+    /** Returns the bucket of a message with the SHA-1 KEY. */
+    private static int bucketOf(byte[] key) {
+        return ByteBuffer.wrap(key).getInt() & (BUCKETS - 1);
+    }
+
+    private static boolean isStale(List<Entry> entries) {
+        if (entries.size() < CommitGraph.size()) {
+            return true;
+        }
+        String head = Repository.getCurrentBranchPointer();
+        for (int i = entries.size() - 1; i >= 0; i -= 1) {
+            if (entries.get(i).getCommitID().equals(head)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Rewrites the index from every commit in the objects directory.
+     * IDs are hashed from the stored bytes, which may be serialized commits. */
+    private static List<Entry> rebuild() {
+        List<Entry> entries = new ArrayList<>();
+        for (String commitID : Commit.commitIDs()) {
+            byte[] bytes = ObjectStore.read(commitID, ObjectStore.COMMIT);
+            Commit commit = Commit.decode(bytes);
+            entries.add(new Entry(sha1(bytes), commit.getMessage(),
+                    commit.getTimestamp(), commit.getParentID(), commit.getSecondParentID()));
+        }
+        append(entries, false);
+        return entries;
+    }
+
+    /** Writes ENTRIES to the index file, after its existing entries if APPEND. */
+    private static void append(List<Entry> entries, boolean append) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(INDEX_FILE, append)))) {
+            for (Entry entry : entries) {
+                writeString(out, entry.getCommitID());
+                writeString(out, entry.getMessage());
+                writeString(out, entry.getTimestamp());
+                writeString(out, entry.getParentID());
+                writeString(out, entry.getSecondParentID());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write commit index.");
+        }
+    }
+
+    /** Reads all entries, or returns null if the file is truncated. */
+    private static List<Entry> read() {
+        List<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(INDEX_FILE.toPath())))) {
+            while (in.available() > 0) {
+                entries.add(new Entry(readString(in), readString(in), readString(in),
+                        readString(in), readString(in)));
+            }
+        } catch (EOFException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("Cannot read commit index.");
+        }
+        return entries;
+    }
+
+    /** Writes a length-prefixed string, with -1 standing for null. */
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
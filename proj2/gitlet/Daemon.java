@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Runs gitlet commands sent by Client over a Unix domain socket, one at a
+ * time, in a single long-running JVM. Scripts issuing many commands then
+ * pay for starting the JVM once, and decoded commits and objects stay
+ * cached between commands. Objects never change once written, but the
+ * commit-graph, the stat cache, the list of packs and the changed-path
+ * filters are dropped whenever their files were changed by another gitlet
+ * process.
+ *
+ *  @author Xiaoli Li
+ */
+public class Daemon {
+    /** Socket the daemon listens on, removed when it stops. */
+    public static final File SOCKET_FILE = join(GITLET_DIR, "daemon.sock");
+
+    /** Files the daemon keeps state of, with the way to drop that state. */
+    private static final Map<File, Runnable> WATCHED = new LinkedHashMap<>();
+    /** Modification time, size and inode of each watched file when last seen. */
+    private static final Map<File, String> STAMPS = new HashMap<>();
+
+    static {
+        WATCHED.put(CommitGraph.GRAPH_FILE, CommitGraph::reload);
+        WATCHED.put(StatCache.CACHE_FILE, StatCache::reload);
+        WATCHED.put(Pack.PACK_DIR, Pack::reload);
+        WATCHED.put(ChangedPaths.FILTER_FILE, ChangedPaths::reload);
+    }
+
+    /** Serves commands until stopped by "daemon stop" or a signal. */
+    public static void serve() {
+        if (SOCKET_FILE.exists()) {
+            if (isRunning()) {
+                throw error("A daemon is already running.");
+            }
+            /** Left behind by a daemon that was killed. */
+            SOCKET_FILE.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    /** The client went away, which only ends its own request. */
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot run daemon: %s", excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Asks the running daemon to stop. */
+    public static void stop() {
+        if (!Client.send(new String[] {"daemon", "stop"})) {
+            throw error("No daemon is running.");
+        }
+    }
+
+    private static boolean isRunning() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Runs the command read from CLIENT, sending back everything it prints.
+     * Returns false if the command was to stop the daemon. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(Channels.newOutputStream(client), false,
+                StandardCharsets.UTF_8);
+        System.setOut(out);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                return !(args.length == 2 && args[1].equals("stop"));
+            }
+            invalidate();
+            Main.run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+        } catch (RuntimeException excp) {
+            /** The client gets one line, as for a failing command; the trace
+             * goes to the daemon's own stderr. */
+            message("Internal error: %s", excp);
+            excp.printStackTrace();
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+            remember();
+        }
+        return true;
+    }
+
+    /** Drops the state of every watched file changed since the last command.
+     * The types walked for untyped objects follow the branches and the
+     * staging area, which any command may change, so they are always dropped. */
+    private static void invalidate() {
+        ObjectStore.reload();
+        for (Map.Entry<File, Runnable> entry : WATCHED.entrySet()) {
+            if (!stamp(entry.getKey()).equals(STAMPS.get(entry.getKey()))) {
+                entry.getValue().run();
+            }
+        }
+    }
+
+    /** Records the watched files as left by the last command, whose own
+     * changes are already reflected in memory. */
+    private static void remember() {
+        for (File file : WATCHED.keySet()) {
+            STAMPS.put(file, stamp(file));
+        }
+    }
+
+    private static String stamp(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return attrs.lastModifiedTime() + " " + attrs.size() + " " + attrs.fileKey();
+        } catch (IOException excp) {
+            return "";
+        }
+    }
+}
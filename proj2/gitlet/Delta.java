@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Copy/insert delta encoding between two versions of a file.
+ * A delta is a sequence of instructions that rebuild the new version,
+ * either copying a range of the base version or inserting literal bytes.
+ *
+ * @author Xiaoli Li
+ */
+public class Delta {
+    /** Length of the blocks of the base version that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME raised to BLOCK - 1, to roll the first byte out of a hash. */
+    private static final int TOP;
+
+    static {
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        TOP = top;
+    }
+
+    /** Instructions of a delta. */
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    /** Returns the delta that turns BASE into TARGET.
+     * Every aligned block of BASE is indexed by its hash, then a rolling
+     * hash over TARGET finds matching blocks, which are extended in both
+     * directions as far as the bytes agree. */
+    public static byte[] encode(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeLong(target.length);
+            int insertStart = 0;
+            int i = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                Integer candidate = blocks.get(h);
+                if (candidate != null && Arrays.equals(base, candidate, candidate + BLOCK,
+                        target, i, i + BLOCK)) {
+                    int start = i;
+                    int baseStart = candidate;
+                    while (start > insertStart && baseStart > 0
+                            && target[start - 1] == base[baseStart - 1]) {
+                        start -= 1;
+                        baseStart -= 1;
+                    }
+                    int end = i + BLOCK;
+                    int baseEnd = candidate + BLOCK;
+                    while (end < target.length && baseEnd < base.length
+                            && target[end] == base[baseEnd]) {
+                        end += 1;
+                        baseEnd += 1;
+                    }
+                    writeInsert(out, target, insertStart, start);
+                    out.writeByte(COPY);
+                    out.writeInt(baseStart);
+                    out.writeInt(end - start);
+                    i = end;
+                    insertStart = end;
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * TOP) * PRIME + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+            writeInsert(out, target, insertStart, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the version rebuilt by applying the delta read from IN to BASE. */
+    public static byte[] apply(byte[] base, InputStream in) throws IOException {
+        DataInputStream delta = new DataInputStream(in);
+        byte[] result = new byte[(int) delta.readLong()];
+        int position = 0;
+        int op;
+        while ((op = delta.read()) != -1) {
+            if (op == COPY) {
+                int offset = delta.readInt();
+                int length = delta.readInt();
+                System.arraycopy(base, offset, result, position, length);
+                position += length;
+            } else if (op == INSERT) {
+                int length = delta.readInt();
+                delta.readFully(result, position, length);
+                position += length;
+            } else {
+                throw new IOException("corrupt delta");
+            }
+        }
+        return result;
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target,
+                                    int start, int end) throws IOException {
+        if (start < end) {
+            out.writeByte(INSERT);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + (bytes[i] & 0xff);
+        }
+        return h;
+    }
+}
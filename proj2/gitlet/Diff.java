@@ -0,0 +1,343 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line diffs, printed in the unified format, and three-way line merges.
+ * Lines are matched with Myers' O(ND) algorithm in its linear-space form,
+ * which bisects the edit graph at the middle of an optimal path and
+ * recurses on both halves, so memory stays proportional to the input.
+ *
+ * @author Xiaoli Li
+ */
+public class Diff {
+    /** Conflict markers around the two versions of a conflicting region. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+    /** Unchanged lines shown around each change of a unified diff. */
+    private static final int CONTEXT = 3;
+    /** Kinds of edits of a unified diff. */
+    private static final int EQUAL = 0;
+    private static final int DELETE = 1;
+    private static final int INSERT = 2;
+
+    /** Numbered lines of the sequences being compared. */
+    private final int[] a;
+    private final int[] b;
+    /** For each line of A, the index of the line of B it is matched to, or -1. */
+    private final int[] match;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.match = new int[a.length];
+        Arrays.fill(match, -1);
+    }
+
+    /** Returns the lines of CONTENTS, each with its line terminator. Bytes
+     * are kept as ISO-8859-1 characters, so any content survives a round trip. */
+    public static List<String> lines(byte[] contents) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                lines.add(new String(contents, start, i + 1 - start, StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            lines.add(new String(contents, start, contents.length - start,
+                    StandardCharsets.ISO_8859_1));
+        }
+        return lines;
+    }
+
+    /** Checks if CONTENTS looks like text, which is what lines are merged for. */
+    public static boolean isText(byte[] contents) {
+        for (byte c : contents) {
+            if (c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns, for each of the lines A, the index of the line of B it is
+     * matched to in a longest common subsequence, or -1 if it is not. */
+    public static int[] match(List<String> a, List<String> b) {
+        HashMap<String, Integer> numbers = new HashMap<>();
+        Diff diff = new Diff(number(a, numbers), number(b, numbers));
+        diff.lcs(0, a.size(), 0, b.size());
+        return diff.match;
+    }
+
+    /** Writes the three-way merge of OURS and THEIRS, two versions derived
+     * from BASE, to OUT. Regions changed on one side only take that side;
+     * regions changed on both sides in the same way are taken once; other
+     * regions are written between conflict markers. Returns true if there
+     * was a conflict. */
+    public static boolean merge(byte[] base, byte[] ours, byte[] theirs,
+                                OutputStream out) throws IOException {
+        List<String> baseLines = lines(base);
+        List<String> ourLines = lines(ours);
+        List<String> theirLines = lines(theirs);
+        int[] toOurs = match(baseLines, ourLines);
+        int[] toTheirs = match(baseLines, theirLines);
+
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (true) {
+            /** Copies lines unchanged on both sides. */
+            while (i < baseLines.size() && toOurs[i] == j && toTheirs[i] == k) {
+                write(out, baseLines.subList(i, i + 1));
+                i += 1;
+                j += 1;
+                k += 1;
+            }
+            if (i == baseLines.size() && j == ourLines.size() && k == theirLines.size()) {
+                return conflict;
+            }
+            /** Finds the next base line kept by both sides, which ends the region. */
+            int nextI = i;
+            while (nextI < baseLines.size() && (toOurs[nextI] < 0 || toTheirs[nextI] < 0)) {
+                nextI += 1;
+            }
+            int nextJ = nextI < baseLines.size() ? toOurs[nextI] : ourLines.size();
+            int nextK = nextI < baseLines.size() ? toTheirs[nextI] : theirLines.size();
+            List<String> baseRegion = baseLines.subList(i, nextI);
+            List<String> ourRegion = ourLines.subList(j, nextJ);
+            List<String> theirRegion = theirLines.subList(k, nextK);
+
+            if (ourRegion.equals(baseRegion)) {
+                write(out, theirRegion);
+            } else if (theirRegion.equals(baseRegion) || theirRegion.equals(ourRegion)) {
+                write(out, ourRegion);
+            } else {
+                out.write(OURS);
+                write(out, ourRegion);
+                out.write(SEPARATOR);
+                write(out, theirRegion);
+                out.write(THEIRS);
+                conflict = true;
+            }
+            i = nextI;
+            j = nextJ;
+            k = nextK;
+        }
+    }
+
+    /** Writes the differences between two versions of a file to OUT in the
+     * unified format, with CONTEXT unchanged lines around each change.
+     * OLDNAME or NEWNAME is null for a file that does not exist on that
+     * side, and a version that is null was too large to be compared. */
+    public static void unified(String oldName, String newName, byte[] oldContents,
+                               byte[] newContents, OutputStream out) throws IOException {
+        String name = oldName != null ? oldName : newName;
+        writeString(out, "diff --git a/" + name + " b/" + name + "\n");
+        String from = oldName == null ? "/dev/null" : "a/" + oldName;
+        String to = newName == null ? "/dev/null" : "b/" + newName;
+        if (oldContents == null || newContents == null
+                || !isText(oldContents) || !isText(newContents)) {
+            writeString(out, "Files " + from + " and " + to + " differ\n");
+            return;
+        }
+        writeString(out, "--- " + from + "\n" + "+++ " + to + "\n");
+
+        List<String> oldLines = lines(oldContents);
+        List<String> newLines = lines(newContents);
+        int[] toNew = match(oldLines, newLines);
+        /** Each edit is its kind and the positions in both versions it is at. */
+        List<int[]> edits = new ArrayList<>();
+        List<Integer> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < oldLines.size() || j < newLines.size()) {
+            if (i < oldLines.size() && toNew[i] == j) {
+                edits.add(new int[] {EQUAL, i, j});
+                i += 1;
+                j += 1;
+                continue;
+            }
+            changes.add(edits.size());
+            if (i < oldLines.size() && toNew[i] < 0) {
+                edits.add(new int[] {DELETE, i, j});
+                i += 1;
+            } else {
+                edits.add(new int[] {INSERT, i, j});
+                j += 1;
+            }
+        }
+
+        /** Changes closer than twice the context share a hunk. */
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1) - changes.get(last) <= 2 * CONTEXT + 1) {
+                last += 1;
+            }
+            int start = Math.max(0, changes.get(first) - CONTEXT);
+            int end = Math.min(edits.size(), changes.get(last) + 1 + CONTEXT);
+            int oldCount = 0;
+            int newCount = 0;
+            for (int[] edit : edits.subList(start, end)) {
+                oldCount += edit[0] != INSERT ? 1 : 0;
+                newCount += edit[0] != DELETE ? 1 : 0;
+            }
+            int[] head = edits.get(start);
+            writeString(out, "@@ -" + range(head[1], oldCount)
+                    + " +" + range(head[2], newCount) + " @@\n");
+            for (int[] edit : edits.subList(start, end)) {
+                String line = edit[0] == INSERT ? newLines.get(edit[2]) : oldLines.get(edit[1]);
+                out.write(edit[0] == EQUAL ? ' ' : edit[0] == DELETE ? '-' : '+');
+                out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+                if (!line.endsWith("\n")) {
+                    writeString(out, "\n\\ No newline at end of file\n");
+                }
+            }
+            first = last + 1;
+        }
+    }
+
+    /** Returns a hunk range of COUNT lines after the first START lines,
+     * leaving out a count of one as diff does. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(OutputStream out, List<String> lines) throws IOException {
+        for (String line : lines) {
+            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /** Replaces each line by a number shared by all equal lines. */
+    private static int[] number(List<String> lines, HashMap<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer n = numbers.putIfAbsent(lines.get(i), numbers.size());
+            result[i] = n == null ? numbers.size() - 1 : n;
+        }
+        return result;
+    }
+
+    /** Matches the lines of A[aLo, aHi) and B[bLo, bHi). */
+    private void lcs(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            match[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] split = bisect(aLo, aHi, bLo, bHi);
+        if (split != null) {
+            lcs(aLo, split[0], bLo, split[1]);
+            lcs(split[0], aHi, split[1], bHi);
+        }
+    }
+
+    /** Returns a point of A and B on an optimal edit path, where the paths
+     * searched forward from the start and backward from the end meet, or
+     * null if the two ranges have no line in common. */
+    private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        /** Furthest x reached on each diagonal, forward and backward. */
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        /** With an odd delta the paths meet on a forward step, else backward. */
+        boolean front = (delta & 1) != 0;
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - 1 - x2] == b[bHi - 1 - y2]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.*;
+
+/** Verifies the objects of a repository.
+ * Every stored object, loose or packed, is read back through ObjectStore,
+ * whatever its storage: compressed, raw, a delta, chunked or from before
+ * fanout directories, and its contents are hashed again and compared with
+ * its ID. Objects are hashed in parallel, each as a stream, so memory does
+ * not grow with the size of blobs. Then the objects reachable from every
+ * branch and from the staging area are walked: a commit's parents and
+ * root tree or file table, a tree's entries, and the delta base or chunks
+ * of a blob. Objects referred to but not stored are missing, and objects
+ * stored but not reachable are dangling.
+ *
+ * @author Xiaoli Li
+ */
+public class Fsck {
+    /** Size of the buffer objects are hashed through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Problems found, each as its kind, the object type and ID. */
+    private final TreeSet<String> problems = new TreeSet<>();
+    /** Objects found corrupt, mapped to their types. */
+    private final Map<String, Byte> corrupt = new HashMap<>();
+    /** Objects reached from the branches and the staging area. */
+    private final Set<String> reachable = new HashSet<>();
+
+    /** Checks the repository and prints each problem found, then the
+     * number of objects checked. */
+    public static void check() {
+        Fsck fsck = new Fsck();
+        TreeMap<String, Byte> objects = storedObjects();
+        fsck.corrupt.putAll(objects.entrySet().parallelStream()
+                .filter(entry -> !hashesTo(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        fsck.walk(objects);
+        fsck.corrupt.forEach((id, type) -> fsck.problems.add(problem("corrupt", type, id)));
+        for (Map.Entry<String, Byte> entry : objects.entrySet()) {
+            if (!fsck.reachable.contains(entry.getKey())) {
+                fsck.problems.add(problem("dangling", entry.getValue(), entry.getKey()));
+            }
+        }
+        for (String problem : fsck.problems) {
+            message(problem);
+        }
+        message("Checked %d objects.", objects.size());
+    }
+
+    /** Returns the IDs of all stored objects, loose or packed, mapped to
+     * their stored types. A loose object whose header cannot be read is
+     * taken as a blob, and found corrupt when hashed. */
+    private static TreeMap<String, Byte> storedObjects() {
+        TreeMap<String, Byte> objects = new TreeMap<>();
+        for (byte type : new byte[] {ObjectStore.BLOB, ObjectStore.COMMIT, ObjectStore.TREE}) {
+            for (String id : Pack.objectIDs("", type)) {
+                objects.put(id, type);
+            }
+        }
+        ObjectStore.looseObjects().forEach((id, file) -> {
+            if (!objects.containsKey(id)) {
+                byte type;
+                try {
+                    type = ObjectStore.typeOf(file);
+                } catch (IllegalArgumentException excp) {
+                    type = ObjectStore.BLOB;
+                }
+                objects.put(id, type);
+            }
+        });
+        return objects;
+    }
+
+    /** Checks if the contents of an object hash to its ID. An object that
+     * cannot be read at all does not. */
+    private static boolean hashesTo(String id, byte type) {
+        try (InputStream in = ObjectStore.open(id, type)) {
+            if (in == null) {
+                return false;
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            return bytesToHex(md.digest()).equals(id);
+        } catch (IOException | RuntimeException excp) {
+            /** Damaged contents may fail to decode in any way. */
+            return false;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Walks the objects reachable from every branch and from the staging
+     * area, noting those missing, stored as another type than they are
+     * referred to with, or failing to decode. The type an object
+     * is referred to with is kept for those found corrupt, as the type of a
+     * damaged loose object may have been mistaken. A blob that hashed wrong
+     * is still walked, since only one of its chunks may be damaged. */
+    private void walk(Map<String, Byte> objects) {
+        Deque<Map.Entry<String, Byte>> stack = new ArrayDeque<>(ObjectStore.roots());
+        while (!stack.isEmpty()) {
+            Map.Entry<String, Byte> next = stack.pop();
+            String id = next.getKey();
+            byte type = next.getValue();
+            if (!reachable.add(id)) {
+                continue;
+            }
+            if (!ObjectStore.contains(id, type)) {
+                problems.add(problem(objects.containsKey(id) ? "mistyped" : "missing", type, id));
+                continue;
+            }
+            if (corrupt.containsKey(id)) {
+                corrupt.put(id, type);
+            }
+            try {
+                ObjectStore.referencesOf(id, type).forEach(stack::push);
+            } catch (RuntimeException excp) {
+                /** Damaged contents may fail to decode in any way. */
+                corrupt.put(id, type);
+            }
+        }
+    }
+
+    /** Returns a problem as printed: its KIND, the object type and ID. */
+    private static String problem(String kind, byte type, String id) {
+        return kind + " " + typeName(type) + " " + id;
+    }
+
+    private static String typeName(byte type) {
+        switch (type) {
+            case ObjectStore.COMMIT:
+                return "commit";
+            case ObjectStore.TREE:
+                return "tree";
+            case ObjectStore.BLOB:
+                return "blob";
+            default:
+                return "object";
+        }
+    }
+}
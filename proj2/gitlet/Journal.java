@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Makes the updates a command makes to HEAD, branch pointers and the
+ * staging area atomic and durable as a whole, and keeps gitlet processes
+ * running at the same time from losing each other's updates.
+ * A file is updated by first taking its lock, FILE.lock, which only one
+ * process can create. The new contents are written to the lock file and
+ * are seen by later reads of the same command through read and exists.
+ * Taking the lock checks that the file still holds what the command read
+ * from it, so an update based on contents another process has changed
+ * since fails instead of overwriting them. Reads never take locks.
+ * When the command ends, commit flushes the lock files and the objects the
+ * command wrote, then writes and flushes its journal, which lists every
+ * rename and deletion to carry out: that single flush is the commit point.
+ * The lock files are then renamed over their targets, which also releases
+ * them, and the journal is removed. A command that dies before the commit
+ * point changes nothing. One that dies after it is finished by recover
+ * when the next one starts.
+ *
+ * @author Xiaoli Li
+ */
+public class Journal {
+    /** Start of the names of the journals, followed by the ID of the
+     * process committing. */
+    private static final String JOURNAL_PREFIX = "journal-";
+    /** End of the names of lock files, which are never branch names. */
+    public static final String LOCK_SUFFIX = ".lock";
+    /** Start of the names of temporary files, which are never object IDs. */
+    public static final String TEMP_PREFIX = ".tmp-";
+    /** Last line of a complete journal. */
+    private static final String END = "end";
+    /** How long to wait for a lock held by another process, in milliseconds.
+     * Set with -Dgitlet.lockTimeout=MS. */
+    private static final long LOCK_TIMEOUT = Long.getLong("gitlet.lockTimeout", 5000);
+
+    /** Files locked by this command, in order, mapped to their lock files. */
+    private static final LinkedHashMap<File, File> LOCKS = new LinkedHashMap<>();
+    /** Locked files this command updates, mapped to true if their new
+     * contents are in the lock file, or to false if they are deleted. */
+    private static final Map<File, Boolean> UPDATES = new HashMap<>();
+    /** Contents of files as first read by this command, null if missing. */
+    private static final Map<File, byte[]> READS = new HashMap<>();
+    /** Loose objects written by this command and not flushed yet. */
+    private static final Set<File> UNSYNCED = ConcurrentHashMap.newKeySet();
+
+    /** Takes the lock of FILE for the rest of the command, waiting up to
+     * LOCK_TIMEOUT for another process to release it. Fails if FILE was
+     * changed since this command read it. */
+    public static synchronized void lock(File file) {
+        if (LOCKS.containsKey(file)) {
+            return;
+        }
+        File lockFile = new File(file.getPath() + LOCK_SUFFIX);
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT;
+        while (true) {
+            try {
+                Files.createFile(lockFile.toPath());
+                break;
+            } catch (FileAlreadyExistsException excp) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw error("Unable to lock %s: another gitlet process is running."
+                            + " If not, remove .gitlet/%s.", relative(file), relative(lockFile));
+                }
+                pause();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        LOCKS.put(file, lockFile);
+        if (READS.containsKey(file) && !Arrays.equals(READS.get(file), current(file))) {
+            throw error("%s was changed by another gitlet process.", relative(file));
+        }
+    }
+
+    /** Replaces the contents of FILE when the command commits. */
+    public static synchronized void write(File file, byte[] contents) {
+        lock(file);
+        try {
+            Files.write(LOCKS.get(file).toPath(), contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        UPDATES.put(file, true);
+    }
+
+    /** Deletes FILE when the command commits. */
+    public static synchronized void delete(File file) {
+        lock(file);
+        UPDATES.put(file, false);
+    }
+
+    /** Returns the contents of FILE as updated so far by this command. */
+    public static synchronized byte[] read(File file) {
+        byte[] contents = UPDATES.containsKey(file) ? updated(file) : snapshot(file);
+        if (contents == null) {
+            throw new IllegalArgumentException(file.getName() + " does not exist");
+        }
+        return contents;
+    }
+
+    /** Checks if FILE exists, as updated so far by this command. */
+    public static synchronized boolean exists(File file) {
+        if (UPDATES.containsKey(file)) {
+            return UPDATES.get(file);
+        }
+        return snapshot(file) != null;
+    }
+
+    /** Notes a loose object written by this command, to be flushed before
+     * anything can point to it. */
+    public static void track(File object) {
+        UNSYNCED.add(object);
+    }
+
+    /** Carries out the updates of this command, if any, and releases its locks. */
+    public static synchronized void commit() {
+        if (UPDATES.isEmpty()) {
+            abort();
+            return;
+        }
+        Set<File> flushed = new HashSet<>();
+        for (File object : UNSYNCED) {
+            flushed.add(object);
+            flushed.add(object.getParentFile());
+        }
+        /** Locks are released in the reverse order they were taken, so the
+         * staging area, locked first, is released once the branches are updated. */
+        List<Map.Entry<File, File>> locks = new ArrayList<>(LOCKS.entrySet());
+        Collections.reverse(locks);
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<File, File> entry : locks) {
+            String lock = relative(entry.getValue()) + "\t" + keyOf(entry.getValue());
+            Boolean written = UPDATES.get(entry.getKey());
+            if (written == null) {
+                lines.add("unlock\t" + lock);
+            } else if (written) {
+                flushed.add(entry.getValue());
+                lines.add("rename\t" + lock + "\t" + relative(entry.getKey()));
+            } else {
+                lines.add("delete\t" + lock + "\t" + relative(entry.getKey()));
+            }
+        }
+        lines.add(END);
+        flushed.parallelStream().forEach(Utils::fsync);
+
+        File journal = join(GITLET_DIR, JOURNAL_PREFIX + ProcessHandle.current().pid());
+        try (FileChannel out = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap((String.join("\n", lines) + "\n")
+                    .getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write journal.");
+        }
+        fsync(GITLET_DIR);
+
+        LOCKS.clear();
+        UPDATES.clear();
+        READS.clear();
+        UNSYNCED.clear();
+        apply(journal, lines);
+    }
+
+    /** Drops the updates of this command, which is failing or read-only,
+     * and releases its locks. */
+    public static synchronized void abort() {
+        for (File lockFile : LOCKS.values()) {
+            lockFile.delete();
+        }
+        LOCKS.clear();
+        UPDATES.clear();
+        READS.clear();
+        UNSYNCED.clear();
+    }
+
+    /** Finishes the updates of commands that died after their commit point.
+     * A journal without its last line was cut short before the commit
+     * point, so its locks are released instead. Journals of processes
+     * still running are theirs to finish, and a journal is claimed by
+     * renaming it, so only one process recovers it. */
+    public static void recover() {
+        String[] names = GITLET_DIR.list();
+        if (names == null) {
+            return;
+        }
+        long self = ProcessHandle.current().pid();
+        File claimed = join(GITLET_DIR, JOURNAL_PREFIX + self);
+        for (String name : names) {
+            if (!name.startsWith(JOURNAL_PREFIX)) {
+                continue;
+            }
+            long pid = Long.parseLong(name.substring(JOURNAL_PREFIX.length()));
+            if (pid != self && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+                continue;
+            }
+            List<String> lines;
+            try {
+                Path journal = join(GITLET_DIR, name).toPath();
+                if (pid != self) {
+                    Files.move(journal, claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                lines = Files.readAllLines(claimed.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                /** Claimed by another process. */
+                continue;
+            }
+            if (!lines.isEmpty() && lines.get(lines.size() - 1).equals(END)) {
+                apply(claimed, lines);
+                continue;
+            }
+            List<String> unlocks = new ArrayList<>();
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 3) {
+                    unlocks.add("unlock\t" + fields[1] + "\t" + fields[2]);
+                }
+            }
+            apply(claimed, unlocks);
+        }
+    }
+
+    /** Replaces the contents of FILE at once, without waiting for them to
+     * reach the disk. Used for caches, which are rebuilt if lost. */
+    public static void replace(File file, byte[] contents) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(file.getParentFile().toPath(), TEMP_PREFIX, "");
+            Files.write(temp, contents);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Carries out the renames, deletions and unlocks listed in LINES,
+     * each line naming a lock file and its key, then removes JOURNAL. A lock
+     * file whose key differs was released already, and possibly taken again
+     * by another command, so it is left alone. */
+    private static void apply(File journal, List<String> lines) {
+        Set<File> dirs = new HashSet<>();
+        try {
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    continue;
+                }
+                File lockFile = join(GITLET_DIR, fields[1]);
+                if (!keyOf(lockFile).equals(fields[2])) {
+                    continue;
+                }
+                if (fields[0].equals("rename")) {
+                    /** Renaming releases the lock, which another process may
+                     * take at once, so the lock file is not touched after. */
+                    Files.move(lockFile.toPath(), join(GITLET_DIR, fields[3]).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    if (fields[0].equals("delete")) {
+                        join(GITLET_DIR, fields[3]).delete();
+                    }
+                    lockFile.delete();
+                }
+                dirs.add(lockFile.getParentFile());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot apply journal: %s", excp.getMessage());
+        }
+        dirs.remove(GITLET_DIR);
+        for (File dir : dirs) {
+            fsync(dir);
+        }
+        journal.delete();
+        fsync(GITLET_DIR);
+    }
+
+    /** Returns the contents of FILE as first read by this command, reading
+     * it now if it was not read yet. A file this command has locked cannot
+     * change, so it is read from disk. */
+    private static byte[] snapshot(File file) {
+        if (LOCKS.containsKey(file)) {
+            return current(file);
+        }
+        if (!READS.containsKey(file)) {
+            READS.put(file, current(file));
+        }
+        return READS.get(file);
+    }
+
+    /** Returns the new contents of a file updated by this command, or null
+     * if it is deleted. */
+    private static byte[] updated(File file) {
+        return UPDATES.get(file) ? readContents(LOCKS.get(file)) : null;
+    }
+
+    /** Returns the contents of FILE on disk, or null if it is missing. */
+    private static byte[] current(File file) {
+        return file.exists() ? readContents(file) : null;
+    }
+
+    /** Returns what tells the lock file FILE apart from a later lock file of
+     * the same name, its inode where the platform has one, or "" if FILE is
+     * missing. */
+    private static String keyOf(File file) {
+        try {
+            return String.valueOf(Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class).fileKey());
+        } catch (IOException excp) {
+            return "";
+        }
+    }
+
+    /** Waits a little before trying a lock again. */
+    private static void pause() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the path of FILE relative to GITLET_DIR. */
+    private static String relative(File file) {
+        return GITLET_DIR.toPath().relativize(file.toPath()).toString();
+    }
+}
@@ -1,5 +1,8 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+
 import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Utils.*;
 
@@ -9,15 +12,53 @@ import static gitlet.Utils.*;
  *  @author Xiaoli Li
  */
 public class Main {
+    /** Commands that change the staging area. */
+    private static final Set<String> INDEX_WRITERS =
+            Set.of("add", "commit", "rm", "checkout", "reset", "merge", "pull");
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        /** Prints the object cache counters on exit when run with -Dgitlet.cacheStats=true. */
+        if (Boolean.getBoolean("gitlet.cacheStats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.err.println(Commit.CACHE);
+                System.err.println(Tree.CACHE);
+                System.err.println(ObjectStore.CACHE);
+            }));
+        }
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+        }
+    }
+
+    /** Runs one command, in this JVM or in the daemon. A command that fails
+     * throws a GitletException whose message is printed by the caller, and
+     * leaves HEAD, the branches and the staging area as they were. */
+    public static void run(String[] args) {
+        /** Finishes the updates of a command that was killed while making them. */
+        Journal.recover();
+        try {
+            /** Commands changing the staging area run one at a time. */
+            if (args.length > 0 && INDEX_WRITERS.contains(args[0]) && GITLET_DIR.exists()) {
+                Journal.lock(Repository.INDEX_FILE);
+            }
+            execute(args);
+            /** Keeps the hashes computed by this command for the next one. */
+            StatCache.save();
+            Journal.commit();
+        } finally {
+            Journal.abort();
+        }
+    }
+
+    private static void execute(String[] args) {
         /** If args is empty */
         if (args.length == 0) {
-            Utils.message("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
 
         String firstArg = args[0];
@@ -27,11 +68,13 @@ public class Main {
                 validateNumArgs("init", args, 1);
                 Repository.initCommand();
                 break;
-            /** Usage: java gitlet.Main add [file name] */
+            /** Usage: java gitlet.Main add [file or directory name] ... */
             case "add":
                 validateInit();
-                validateNumArgs("add", args, 2);
-                Repository.addCommand(args[1]);
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.addCommand(Arrays.copyOfRange(args, 1, args.length));
                 break;
             /** Usage: java gitlet.Main commit [message] */
             case "commit":
@@ -49,11 +92,10 @@ public class Main {
                 validateNumArgs("rm", args, 2);
                 Repository.removeCommand(args[1]);
                 break;
-            /** Usage: java gitlet.Main log */
+            /** Usage: java gitlet.Main log [-n count] [--since date] [-- path] */
             case "log":
                 validateInit();
-                validateNumArgs("log", args, 1);
-                Repository.logCommand();
+                Repository.logCommand(Arrays.copyOfRange(args, 1, args.length));
                 break;
             /** Usage: java gitlet.Main global-log */
             case "global-log":
@@ -73,6 +115,26 @@ public class Main {
                 validateNumArgs("status", args, 1);
                 Repository.statusCommand();
                 break;
+            /** Usage: java gitlet.Main diff [--cached | [commit id] [commit id]] */
+            case "diff":
+                validateInit();
+                if (args.length > 3) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.diffCommand(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            /** Usage: java gitlet.Main blame [file name], or
+             * java gitlet.Main blame [commit id] -- [file name] */
+            case "blame":
+                validateInit();
+                if (args.length == 2) {
+                    Repository.blameCommand(null, args[1]);
+                } else if (args.length == 4 && args[2].equals("--")) {
+                    Repository.blameCommand(args[1], args[3]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
             /** Handles 3 use cases. */
             case "checkout":
                 validateInit();
@@ -83,21 +145,18 @@ public class Main {
                  * */
                 if (args.length == 3) {
                     if (!args[1].equals("--")) {
-                        message("Incorrect operands.");
-                        System.exit(0);
+                        throw error("Incorrect operands.");
                     }
                     Repository.checkoutFile(args[2]);
                 } else if (args.length == 4) {
                     if (!args[2].equals("--")) {
-                        message("Incorrect operands.");
-                        System.exit(0);
+                        throw error("Incorrect operands.");
                     }
                     Repository.checkoutFile(args[1], args[3]);
                 } else if (args.length == 2) {
                     Repository.checkoutBranch(args[1]);
                 } else {
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             /** Usage: java gitlet.Main branch [branch name] */
@@ -124,9 +183,67 @@ public class Main {
                 validateNumArgs("merge", args, 2);
                 Repository.mergeCommand(args[1]);
                 break;
+            /** Usage: java gitlet.Main gc, or java gitlet.Main repack */
+            case "gc":
+            case "repack":
+                validateInit();
+                validateNumArgs(firstArg, args, 1);
+                Repository.gcCommand();
+                break;
+            /** Usage: java gitlet.Main count-objects */
+            case "count-objects":
+                validateInit();
+                validateNumArgs(firstArg, args, 1);
+                Repository.countObjectsCommand();
+                break;
+            /** Usage: java gitlet.Main fsck */
+            case "fsck":
+                validateInit();
+                validateNumArgs(firstArg, args, 1);
+                Repository.fsckCommand();
+                break;
+            /** Usage: java gitlet.Main add-remote [remote name] [name of remote directory]/.gitlet */
+            case "add-remote":
+                validateInit();
+                validateNumArgs(firstArg, args, 3);
+                Repository.addRemoteCommand(args[1], args[2]);
+                break;
+            /** Usage: java gitlet.Main rm-remote [remote name] */
+            case "rm-remote":
+                validateInit();
+                validateNumArgs(firstArg, args, 2);
+                Repository.removeRemoteCommand(args[1]);
+                break;
+            /** Usage: java gitlet.Main fetch [remote name] [remote branch name] */
+            case "fetch":
+                validateInit();
+                validateNumArgs(firstArg, args, 3);
+                Repository.fetchCommand(args[1], args[2]);
+                break;
+            /** Usage: java gitlet.Main push [remote name] [remote branch name] */
+            case "push":
+                validateInit();
+                validateNumArgs(firstArg, args, 3);
+                Repository.pushCommand(args[1], args[2]);
+                break;
+            /** Usage: java gitlet.Main pull [remote name] [remote branch name] */
+            case "pull":
+                validateInit();
+                validateNumArgs(firstArg, args, 3);
+                Repository.pullCommand(args[1], args[2]);
+                break;
+            /** Usage: java gitlet.Main daemon, or java gitlet.Main daemon stop */
+            case "daemon":
+                validateInit();
+                if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                    break;
+                }
+                validateNumArgs(firstArg, args, 1);
+                Daemon.serve();
+                break;
             default:
-                Utils.message("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
         }
     }
 
@@ -140,15 +257,13 @@ public class Main {
      * */
     public static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
-            message("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
     public static void validateInit() {
         if (!GITLET_DIR.exists()) {
-            message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
 }
@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of objects already read during one run of gitlet, so that a
+ * command touching the same commit or blob several times reads and decodes
+ * it once. Entries are weighed by their size in bytes, and the least
+ * recently used ones are evicted once the total weight exceeds the limit.
+ * Lookups are counted as hits or misses. It may be used by several threads.
+ *
+ * @author Xiaoli Li
+ */
+public class ObjectCache<V> {
+    /** A cached object and its weight. */
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final String name;
+    private final long limit;
+    /** Cached entries, least recently used first. */
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /** Creates an empty cache called NAME holding at most LIMIT bytes. */
+    public ObjectCache(String name, long limit) {
+        this.name = name;
+        this.limit = limit;
+    }
+
+    /** Returns the object with given ID, or null if it is not cached. */
+    public synchronized V get(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Keeps VALUE, which weighs WEIGHT bytes, under ID. Objects heavier
+     * than the whole cache are not kept. */
+    public synchronized void put(String id, V value, long valueWeight) {
+        if (valueWeight > limit || entries.containsKey(id)) {
+            return;
+        }
+        entries.put(id, new Entry<>(value, valueWeight));
+        weight += valueWeight;
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (weight > limit) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    /** Returns the counters of the cache, as printed with -Dgitlet.cacheStats=true. */
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d entries, %d bytes",
+                name, hits, misses, entries.size(), weight);
+    }
+}
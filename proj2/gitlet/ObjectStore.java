@@ -0,0 +1,591 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Repository.OBJECTS_DIR;
+import static gitlet.Utils.*;
+
+/** Reads and writes the objects under OBJECTS_DIR, loose or packed.
+ * A loose object is named by its full ID, in the fanout directory named by
+ * the first two characters of the ID. Objects written before fanout
+ * directories stay directly under OBJECTS_DIR and are still read.
+ * Objects are stored zlib-compressed behind a header byte, which also
+ * holds the type of the object, so the type is never guessed from the
+ * contents. A blob may instead be stored as a delta against another blob,
+ * rebuilt on reading, or as a list of chunks, read one after the other.
+ * Objects written before compression have no header, and those written
+ * before types were stored have an untyped header: their type is known from
+ * their file name for commits stored before fanout directories, and
+ * otherwise from the objects referring to them.
+ *
+ * @author Xiaoli Li
+ */
+public class ObjectStore {
+    /** Object types. */
+    public static final byte BLOB = 1;
+    public static final byte COMMIT = 2;
+    public static final byte TREE = 3;
+
+    /** First byte of a compressed object of unknown type, followed by the
+     * zlib stream. Text never starts with it, and legacy commits start with
+     * 0xAC. No longer written. */
+    private static final int COMPRESSED = 0;
+    /** First byte of a delta object, followed by the zlib stream of the
+     * base ID, the delta chain depth and the delta instructions. */
+    private static final int DELTA = 1;
+    /** First byte of a chunked blob, followed by the zlib stream of the
+     * number of chunks and the ID and length of each chunk. */
+    private static final int CHUNKED = 2;
+    /** First byte of a compressed object is TYPED plus its type, followed
+     * by the zlib stream. */
+    private static final int TYPED = 3;
+    /** Stored objects without a header. */
+    private static final int RAW = -1;
+    /** Objects are stored in zlib blocks left uncompressed when run with
+     * -Dgitlet.compress=false. */
+    private static final boolean COMPRESS =
+            !"false".equals(System.getProperty("gitlet.compress"));
+
+    /** Longest chain of deltas a blob is rebuilt through. */
+    public static final int MAX_DEPTH = 10;
+    /** Total bytes of blobs kept in memory. */
+    private static final long CACHE_LIMIT = 16 << 20;
+    /** Blobs read whole during this run, including delta bases and rebuilt
+     * blobs. Commits and trees are cached decoded by Commit and Tree instead. */
+    public static final ObjectCache<byte[]> CACHE = new ObjectCache<>("blob", CACHE_LIMIT);
+
+    /** Types of the objects reachable from the branches and the staging
+     * area, walked on first use to tell the type of an untyped object. */
+    private static Map<String, Byte> reachableTypes;
+
+    /** Drops the walked types, so that they are walked again on next use. */
+    public static void reload() {
+        reachableTypes = null;
+    }
+
+    /** Returns the loose file of an object. */
+    public static File looseFile(String id) {
+        return join(OBJECTS_DIR, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns the file an object was stored in before fanout directories.
+     * Commit files were named by the abbreviated ID, others by the full one. */
+    private static File legacyFile(String id, byte type) {
+        return join(OBJECTS_DIR, type == COMMIT ? id.substring(0, 8) : id);
+    }
+
+    /** Returns the loose file holding an object, or null if it is not loose. */
+    private static File storedFile(String id, byte type) {
+        File file = looseFile(id);
+        if (file.isFile()) {
+            return file;
+        }
+        file = legacyFile(id, type);
+        return file.isFile() ? file : null;
+    }
+
+    /** Checks if the object exists, loose or packed as an object of TYPE. */
+    public static boolean contains(String id, byte type) {
+        return storedFile(id, type) != null || Pack.contains(id, type);
+    }
+
+    /** Returns the full IDs of the objects of given TYPE whose IDs start
+     * with PREFIX. Only the fanout directory of the prefix is listed, and
+     * packs are searched through their indexes. */
+    public static List<String> matching(String prefix, byte type) {
+        TreeSet<String> ids = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{2,40}")) {
+            return new ArrayList<>();
+        }
+        String fanout = prefix.substring(0, 2);
+        File dir = join(OBJECTS_DIR, fanout);
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix.substring(2)) && typeOf(join(dir, name)) == type) {
+                    ids.add(fanout + name);
+                }
+            }
+        }
+        ids.addAll(Pack.objectIDs(prefix, type));
+        if (type == COMMIT && prefix.length() >= 8) {
+            File legacy = legacyFile(prefix, COMMIT);
+            if (legacy.isFile()) {
+                String id = sha1(readLoose(legacy));
+                if (id.startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the full IDs of all loose objects mapped to their files. */
+    public static TreeMap<String, File> looseObjects() {
+        TreeMap<String, File> objects = new TreeMap<>();
+        File[] files = OBJECTS_DIR.listFiles();
+        if (files == null) {
+            return objects;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory() && name.length() == 2) {
+                for (String rest : plainFilenamesIn(file)) {
+                    /** Skips objects still being written. */
+                    if (rest.length() == UID_LENGTH - 2) {
+                        objects.put(name + rest, join(file, rest));
+                    }
+                }
+            } else if (file.isFile()) {
+                String id = name.length() < UID_LENGTH ? sha1(readLoose(file)) : name;
+                objects.put(id, file);
+            }
+        }
+        return objects;
+    }
+
+    /** Returns a stream of the uncompressed contents of an object, or null
+     * if there is no such object. Packed objects are looked up first.
+     * Blobs already in CACHE are not read again. */
+    public static InputStream open(String id, byte type) {
+        byte[] cached = type == BLOB ? CACHE.get(id) : null;
+        if (cached != null) {
+            return new ByteArrayInputStream(cached);
+        }
+        try {
+            InputStream in = openStored(id, type);
+            if (in == null) {
+                return null;
+            }
+            switch (header(in)) {
+                case COMPRESSED:
+                case TYPED + BLOB:
+                case TYPED + COMMIT:
+                case TYPED + TREE:
+                    in.skip(1);
+                    return new InflaterInputStream(in);
+                case DELTA:
+                    in.skip(1);
+                    return new ByteArrayInputStream(undelta(id, new InflaterInputStream(in)));
+                case CHUNKED:
+                    in.skip(1);
+                    return openChunks(readManifest(in));
+                default:
+                    return in;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of deltas needed to rebuild a blob, 0 if it is
+     * stored whole. */
+    public static int depthOf(String id) {
+        try (InputStream in = openStored(id, BLOB)) {
+            if (in == null || header(in) != DELTA) {
+                return 0;
+            }
+            in.skip(1);
+            DataInputStream payload = new DataInputStream(new InflaterInputStream(in));
+            payload.skipBytes(UID_LENGTH);
+            return payload.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves a blob as a delta against the blob BASEID. */
+    public static void writeDelta(String id, String baseID, byte[] delta) {
+        int depth = depthOf(baseID) + 1;
+        Deflater deflater = new Deflater();
+        Path temp = createTemp(id);
+        try (OutputStream file = Files.newOutputStream(temp)) {
+            file.write(DELTA);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(file, deflater));
+            out.write(baseID.getBytes(StandardCharsets.UTF_8));
+            out.writeInt(depth);
+            out.write(delta);
+            out.close();
+        } catch (IOException excp) {
+            temp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        install(temp, id);
+    }
+
+    /** Saves a blob as the list of its CHUNKS, which are already stored. */
+    public static void writeChunked(String id, List<Chunker.Chunk> chunks) {
+        Deflater deflater = new Deflater();
+        Path temp = createTemp(id);
+        try (OutputStream file = Files.newOutputStream(temp)) {
+            file.write(CHUNKED);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(file, deflater));
+            out.writeInt(chunks.size());
+            for (Chunker.Chunk chunk : chunks) {
+                out.write(chunk.getID().getBytes(StandardCharsets.UTF_8));
+                out.writeInt(chunk.getLength());
+            }
+            out.close();
+        } catch (IOException excp) {
+            temp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        install(temp, id);
+    }
+
+    /** Returns the chunks of a blob, or null if it is not stored chunked. */
+    public static List<Chunker.Chunk> chunksOf(String id) {
+        try (InputStream in = openStored(id, BLOB)) {
+            if (in == null || header(in) != CHUNKED) {
+                return null;
+            }
+            in.skip(1);
+            return readManifest(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of an object, or null if there
+     * is no such object. Blobs are kept in CACHE. */
+    public static byte[] read(String id, byte type) {
+        InputStream in = open(id, type);
+        if (in == null) {
+            return null;
+        }
+        try (in) {
+            byte[] contents = in.readAllBytes();
+            if (type == BLOB) {
+                CACHE.put(id, contents, contents.length);
+            }
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of a commit or tree from its stored
+     * bytes IN, which may come from another repository, and closes IN. */
+    public static byte[] inflate(InputStream in) {
+        try (InputStream stored = new BufferedInputStream(in)) {
+            if (isCompressed(header(stored))) {
+                stored.skip(1);
+                return new InflaterInputStream(stored).readAllBytes();
+            }
+            return stored.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the IDs of the blobs the stored blob ID is rebuilt from. */
+    public static List<String> references(String id) {
+        try {
+            InputStream in = openStored(id, BLOB);
+            return in == null ? new ArrayList<>() : references(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the IDs of the blobs a stored blob is rebuilt from, from its
+     * stored bytes IN, and closes IN: the base of a delta, the chunks of a
+     * chunked blob, or none. */
+    public static List<String> references(InputStream in) {
+        List<String> ids = new ArrayList<>();
+        try (InputStream stored = new BufferedInputStream(in)) {
+            int header = header(stored);
+            stored.skip(1);
+            if (header == DELTA) {
+                byte[] baseID = new InflaterInputStream(stored).readNBytes(UID_LENGTH);
+                ids.add(new String(baseID, StandardCharsets.UTF_8));
+            } else if (header == CHUNKED) {
+                for (Chunker.Chunk chunk : readManifest(stored)) {
+                    ids.add(chunk.getID());
+                }
+            }
+            return ids;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the uncompressed contents of a loose object file that is not a delta. */
+    public static byte[] readLoose(File file) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            if (isCompressed(header(in))) {
+                in.skip(1);
+                return new InflaterInputStream(in).readAllBytes();
+            }
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the type of a loose object file, as stored in its header.
+     * Deltas and chunked objects are blobs, and commits stored before fanout
+     * directories are named by the abbreviated ID. The type of any other
+     * untyped object is the one it is referred to with, or 0 if nothing
+     * reachable refers to it. */
+    public static byte typeOf(File file) {
+        boolean legacy = file.getParentFile().equals(OBJECTS_DIR);
+        if (legacy && file.getName().length() < UID_LENGTH) {
+            return COMMIT;
+        }
+        int header;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            header = header(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (header > TYPED) {
+            return (byte) (header - TYPED);
+        } else if (header == DELTA || header == CHUNKED) {
+            return BLOB;
+        }
+        if (reachableTypes == null) {
+            reachableTypes = reachableTypes();
+        }
+        String id = legacy ? file.getName() : file.getParentFile().getName() + file.getName();
+        return reachableTypes.getOrDefault(id, (byte) 0);
+    }
+
+    /** Returns the objects the others are reached from: the commit of each
+     * branch and the blobs in the staging area. */
+    public static List<Map.Entry<String, Byte>> roots() {
+        List<Map.Entry<String, Byte>> roots = new ArrayList<>();
+        for (String branch : Repository.branchNames()) {
+            roots.add(Map.entry(Repository.getBranchPointer(branch), COMMIT));
+        }
+        for (String blobID : Repository.getStagingArea().values()) {
+            if (!blobID.equals("remove")) {
+                roots.add(Map.entry(blobID, BLOB));
+            }
+        }
+        return roots;
+    }
+
+    /** Returns the IDs and types of the objects an object of TYPE refers
+     * to: the parents and root tree or files of a commit, the entries of
+     * a tree, and the delta base or chunks of a blob. */
+    public static List<Map.Entry<String, Byte>> referencesOf(String id, byte type) {
+        List<Map.Entry<String, Byte>> references = new ArrayList<>();
+        if (type == COMMIT) {
+            Commit commit = Commit.decode(read(id, COMMIT));
+            for (String parent : new String[] {commit.getParentID(),
+                                               commit.getSecondParentID()}) {
+                if (parent != null) {
+                    references.add(Map.entry(parent, COMMIT));
+                }
+            }
+            if (commit.hasTree()) {
+                references.add(Map.entry(commit.getTreeID(), TREE));
+            } else {
+                for (String blobID : commit.getFilesMapping().values()) {
+                    references.add(Map.entry(blobID, BLOB));
+                }
+            }
+        } else if (type == TREE) {
+            Tree tree = Tree.decode(read(id, TREE));
+            for (String blobID : tree.getFiles().values()) {
+                references.add(Map.entry(blobID, BLOB));
+            }
+            for (String treeID : tree.getDirectories().values()) {
+                references.add(Map.entry(treeID, TREE));
+            }
+        } else {
+            for (String blobID : references(id)) {
+                references.add(Map.entry(blobID, BLOB));
+            }
+        }
+        return references;
+    }
+
+    /** Returns the IDs of the objects reachable from the roots that are
+     * stored, mapped to the types they are referred to with. Objects that
+     * fail to decode are not walked through, and are left to fsck. */
+    private static Map<String, Byte> reachableTypes() {
+        Map<String, Byte> types = new HashMap<>();
+        Deque<Map.Entry<String, Byte>> stack = new ArrayDeque<>(roots());
+        while (!stack.isEmpty()) {
+            Map.Entry<String, Byte> next = stack.pop();
+            if (!types.containsKey(next.getKey()) && contains(next.getKey(), next.getValue())) {
+                types.put(next.getKey(), next.getValue());
+                try {
+                    referencesOf(next.getKey(), next.getValue()).forEach(stack::push);
+                } catch (RuntimeException excp) {
+                    /** Damaged contents may fail to decode in any way. */
+                    continue;
+                }
+            }
+        }
+        return types;
+    }
+
+    /** Saves the contents read from IN as a loose object of TYPE. */
+    public static void write(String id, byte type, InputStream in) {
+        Path temp = createTemp(id);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write(TYPED + type);
+            Deflater deflater = new Deflater(COMPRESS
+                    ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+            try (DeflaterOutputStream zip = new DeflaterOutputStream(out, deflater, 1 << 16)) {
+                in.transferTo(zip);
+            } finally {
+                deflater.end();
+            }
+        } catch (IOException excp) {
+            temp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(temp, id);
+    }
+
+    /** Returns a new temporary file in the fanout directory of object ID.
+     * Objects are written there and moved into place once complete, so a
+     * loose object is never seen half written. */
+    private static Path createTemp(String id) {
+        File dir = looseFile(id).getParentFile();
+        dir.mkdir();
+        try {
+            return Files.createTempFile(dir.toPath(), Journal.TEMP_PREFIX, "");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Moves the complete object TEMP into place as object ID, to be
+     * flushed to disk before the command commits. */
+    private static void install(Path temp, String id) {
+        File file = looseFile(id);
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.track(file);
+    }
+
+    /** Returns a buffered stream of the stored bytes of an object, or null
+     * if there is no such object. */
+    private static InputStream openStored(String id, byte type) throws IOException {
+        InputStream stored = Pack.openObject(id, type);
+        if (stored == null) {
+            File file = storedFile(id, type);
+            if (file == null) {
+                return null;
+            }
+            stored = Files.newInputStream(file.toPath());
+        }
+        return new BufferedInputStream(stored, 1 << 16);
+    }
+
+    /** Returns how the object read from IN is stored, leaving IN unread.
+     * A header byte only counts if a zlib header follows it, whose method
+     * is 8 and whose two bytes are a multiple of 31. */
+    private static int header(InputStream in) throws IOException {
+        in.mark(3);
+        int header = in.read();
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        if (header >= COMPRESSED && header <= TYPED + TREE && header != TYPED
+                && cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && (cmf * 256 + flg) % 31 == 0) {
+            return header;
+        }
+        return RAW;
+    }
+
+    /** Checks if HEADER stands for an object stored whole and compressed. */
+    private static boolean isCompressed(int header) {
+        return header == COMPRESSED || header > TYPED;
+    }
+
+    /** Reads the list of chunks of a blob from its stored bytes IN, past
+     * the header byte, and closes IN. */
+    private static List<Chunker.Chunk> readManifest(InputStream in) throws IOException {
+        try (DataInputStream manifest = new DataInputStream(new InflaterInputStream(in))) {
+            int count = manifest.readInt();
+            List<Chunker.Chunk> chunks = new ArrayList<>(count);
+            byte[] idBytes = new byte[UID_LENGTH];
+            for (int i = 0; i < count; i += 1) {
+                manifest.readFully(idBytes);
+                chunks.add(new Chunker.Chunk(new String(idBytes, StandardCharsets.UTF_8),
+                        manifest.readInt()));
+            }
+            return chunks;
+        }
+    }
+
+    /** Returns a stream of CHUNKS one after the other, each opened only
+     * once the previous one is read. */
+    private static InputStream openChunks(List<Chunker.Chunk> chunks) {
+        Iterator<Chunker.Chunk> iterator = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunkID = iterator.next().getID();
+                InputStream chunk = open(chunkID, BLOB);
+                if (chunk == null) {
+                    throw new IllegalArgumentException("missing chunk " + chunkID);
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /** Rebuilds object ID from the delta payload read from IN, through
+     * its base, and keeps the result for later deltas against it. */
+    private static byte[] undelta(String id, InputStream in) throws IOException {
+        try (DataInputStream payload = new DataInputStream(in)) {
+            byte[] baseIDBytes = new byte[UID_LENGTH];
+            payload.readFully(baseIDBytes);
+            payload.readInt();
+            String baseID = new String(baseIDBytes, StandardCharsets.UTF_8);
+            byte[] base = read(baseID, BLOB);
+            if (base == null) {
+                throw new IOException("missing delta base of " + id);
+            }
+            byte[] result = Delta.apply(base, payload);
+            CACHE.put(id, result, result.length);
+            return result;
+        }
+    }
+}
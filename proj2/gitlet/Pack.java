@@ -0,0 +1,340 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Repository.OBJECTS_DIR;
+import static gitlet.Utils.*;
+
+/** Represents a packfile of gitlet objects.
+ * A pack holds the contents of many objects back to back in one append-only
+ * file. Its index file lists the objects sorted by SHA-1 together with their
+ * offsets, so an object is found by binary search instead of by listing the
+ * objects directory.
+ *
+ * @author Xiaoli Li
+ */
+public class Pack {
+    /** Stores pack files and their index files. */
+    public static final File PACK_DIR = join(OBJECTS_DIR, "pack");
+
+    private static final byte[] PACK_MAGIC = "GPAK".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INDEX_MAGIC = "GIDX".getBytes(StandardCharsets.UTF_8);
+    /** Length of a SHA-1 in bytes. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Magic, number of entries, then a fanout table with one count per leading byte. */
+    private static final int HEADER_SIZE = 4 + 4 + 256 * 4;
+    /** SHA-1, type, offset into the pack and length of the contents. */
+    private static final int ENTRY_SIZE = ID_BYTES + 1 + 8 + 8;
+
+    /** Packs of this repository, loaded on first use. */
+    private static List<Pack> packs;
+
+    private final File packFile;
+    private final ByteBuffer index;
+    private final int size;
+
+    private Pack(File packFile, File indexFile) {
+        this.packFile = packFile;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+            this.index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read pack index %s.", indexFile.getName());
+        }
+        this.size = index.getInt(4);
+    }
+
+    /** Drops the list of packs, so that PACK_DIR is listed again on next use. */
+    public static synchronized void reload() {
+        packs = null;
+    }
+
+    /** Returns all packs under PACK_DIR, listed on first use. */
+    private static synchronized List<Pack> getPacks() {
+        if (packs == null) {
+            packs = packsIn(PACK_DIR);
+        }
+        return packs;
+    }
+
+    /** Returns all packs under DIR, which may belong to another repository.
+     * A pack without its index is ignored. */
+    public static List<Pack> packsIn(File dir) {
+        List<Pack> result = new ArrayList<>();
+        List<String> files = plainFilenamesIn(dir);
+        if (files != null) {
+            for (String file : files) {
+                if (file.endsWith(".idx")) {
+                    String name = file.substring(0, file.length() - 4);
+                    result.add(new Pack(join(dir, name + ".pack"), join(dir, file)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns a stream of the stored bytes of the object of given TYPE whose
+     * ID starts with PREFIX, or null if no pack holds such an object. */
+    public static InputStream openObject(String prefix, byte type) throws IOException {
+        if (!prefix.matches("[0-9a-f]+")) {
+            return null;
+        }
+        for (Pack pack : getPacks()) {
+            int i = pack.find(prefix, type);
+            if (i >= 0) {
+                return pack.openAt(i);
+            }
+        }
+        return null;
+    }
+
+    /** Returns a stream of the stored bytes of the object with given full
+     * ID, or null if this pack does not hold it. */
+    public InputStream open(String id) throws IOException {
+        int i = lowerBound(id);
+        return i < size && idAt(i).equals(id) ? openAt(i) : null;
+    }
+
+    /** Returns the type of the object with given full ID, or 0 if this
+     * pack does not hold it. */
+    public byte typeOf(String id) {
+        int i = lowerBound(id);
+        return i < size && idAt(i).equals(id) ? typeAt(i) : 0;
+    }
+
+    /** Checks if the object with given full ID is stored in a pack as an
+     * object of TYPE. */
+    public static boolean contains(String id, byte type) {
+        for (Pack pack : getPacks()) {
+            if (pack.find(id, type) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the IDs of all packed objects of given TYPE whose IDs
+     * start with PREFIX. */
+    public static List<String> objectIDs(String prefix, byte type) {
+        List<String> ids = new ArrayList<>();
+        for (Pack pack : getPacks()) {
+            for (int i = pack.lowerBound(prefix); i < pack.size; i += 1) {
+                String id = pack.idAt(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                if (pack.typeAt(i) == type) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the number of packs. */
+    public static int packCount() {
+        return getPacks().size();
+    }
+
+    /** Returns the number of objects in all packs. */
+    public static int objectCount() {
+        int count = 0;
+        for (Pack pack : getPacks()) {
+            count += pack.size;
+        }
+        return count;
+    }
+
+    /** Returns the total size of the pack files and their indexes in bytes. */
+    public static long storedBytes() {
+        long bytes = 0;
+        for (Pack pack : getPacks()) {
+            bytes += pack.packFile.length() + pack.index.capacity();
+        }
+        return bytes;
+    }
+
+    /** Folds all loose objects into a new pack, then deletes the loose files.
+     * Objects already packed are left where they are, so each run only
+     * writes the objects created since the last one. Each object is packed
+     * with the type ObjectStore finds for its file, and only counts as
+     * packed if a pack holds it with that type. Untyped objects nothing
+     * reachable refers to stay loose, since their type is unknown. */
+    public static void repack() {
+        /** Maps the full ID of each loose object to its file. */
+        TreeMap<String, File> loose = ObjectStore.looseObjects();
+        List<File> packedFiles = new ArrayList<>();
+        Map<String, Byte> types = new TreeMap<>();
+        for (Map.Entry<String, File> entry : loose.entrySet()) {
+            byte type = ObjectStore.typeOf(entry.getValue());
+            if (type == 0) {
+                continue;
+            }
+            packedFiles.add(entry.getValue());
+            if (!contains(entry.getKey(), type)) {
+                types.put(entry.getKey(), type);
+            }
+        }
+        /** Loose files are only deleted once the pack holding them is on disk. */
+        if (!types.isEmpty()) {
+            write(PACK_DIR, Remote.local(), types);
+        }
+        for (File file : packedFiles) {
+            file.delete();
+            /** Fanout directories are removed once empty. */
+            if (!file.getParentFile().equals(OBJECTS_DIR)) {
+                file.getParentFile().delete();
+            }
+        }
+        packs = null;
+    }
+
+    /** Writes the objects of SOURCE with given IDs, sorted by ID, into a
+     * new pack under DIR and its index, each with the type it is mapped to
+     * in TYPES. Each object is copied as stored, straight from its loose
+     * file or from the pack holding it. */
+    public static void write(File dir, Remote source, Map<String, Byte> types) {
+        TreeSet<String> sorted = new TreeSet<>(types.keySet());
+        dir.mkdirs();
+        String name = "pack-" + sha1(String.join("", sorted));
+        File packFile = join(dir, name + ".pack");
+        ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + sorted.size() * ENTRY_SIZE);
+        index.put(INDEX_MAGIC);
+        index.putInt(sorted.size());
+        int[] fanout = new int[256];
+
+        try (FileChannel out = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(PACK_MAGIC));
+            OutputStream outStream = Channels.newOutputStream(out);
+            index.position(HEADER_SIZE);
+            for (String id : sorted) {
+                long offset = out.position();
+                try (InputStream in = source.openStored(id, types.get(id))) {
+                    in.transferTo(outStream);
+                }
+                byte[] idBytes = hexToBytes(id);
+                index.put(idBytes);
+                index.put(types.get(id));
+                index.putLong(offset);
+                index.putLong(out.position() - offset);
+                fanout[idBytes[0] & 0xff] += 1;
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write pack %s.", name);
+        }
+        /** Turns per-byte counts into cumulative counts. */
+        index.position(8);
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            index.putInt(total);
+        }
+        fsync(packFile);
+        File indexFile = join(dir, name + ".idx");
+        Journal.replace(indexFile, index.array());
+        fsync(indexFile);
+        fsync(dir);
+    }
+
+    /** Returns the position of the first entry of given TYPE whose ID starts
+     * with PREFIX, or -1 if there is none. */
+    private int find(String prefix, byte type) {
+        for (int i = lowerBound(prefix); i < size && idAt(i).startsWith(prefix); i += 1) {
+            if (typeAt(i) == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the position of the first entry whose ID is not less than PREFIX.
+     * The fanout table narrows the search to IDs sharing the leading byte. */
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = size;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+            hi = index.getInt(8 + first * 4);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(HEADER_SIZE + i * ENTRY_SIZE, id);
+        return bytesToHex(id);
+    }
+
+    private byte typeAt(int i) {
+        return index.get(HEADER_SIZE + i * ENTRY_SIZE + ID_BYTES);
+    }
+
+    /** Returns a stream of the stored bytes of the entry at position I. */
+    private InputStream openAt(int i) throws IOException {
+        FileChannel in = FileChannel.open(packFile.toPath());
+        in.position(offsetAt(i));
+        return new BoundedInputStream(Channels.newInputStream(in), lengthAt(i));
+    }
+
+    private long offsetAt(int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE + ID_BYTES + 1);
+    }
+
+    private long lengthAt(int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE + ID_BYTES + 9);
+    }
+
+    /** Reads at most a given number of bytes from the underlying stream. */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining -= 1;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
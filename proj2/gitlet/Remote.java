@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Represents a gitlet repository reached through the path of its .gitlet
+ * directory, such as a remote added with add-remote. Its objects are read
+ * as stored, loose or packed, and copied into another repository byte for
+ * byte, so a transfer never decompresses and compresses blobs again. Only
+ * commits and trees are decoded, and only far enough to find the objects
+ * they refer to.
+ *
+ * @author Xiaoli Li
+ */
+public class Remote {
+    /** Holds one file per remote, named after it, containing its path. */
+    public static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
+
+    private final File gitletDir;
+    private final File objectsDir;
+    private final List<Pack> packs;
+
+    public Remote(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.objectsDir = join(gitletDir, "objects");
+        this.packs = Pack.packsIn(join(objectsDir, "pack"));
+    }
+
+    /** Returns this repository, as the source of a push. */
+    public static Remote local() {
+        return new Remote(GITLET_DIR);
+    }
+
+    /** Returns the remote added under NAME. */
+    public static Remote named(String name) {
+        File config = join(REMOTES_DIR, name);
+        if (!Journal.exists(config)) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(new String(Journal.read(config), StandardCharsets.UTF_8));
+        if (!join(dir, "objects").isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return new Remote(dir);
+    }
+
+    /** Returns the file holding the pointer of BRANCH. */
+    public File branchFile(String branch) {
+        return join(gitletDir, "refs", "heads", branch);
+    }
+
+    /** Returns the head commit ID of BRANCH, or null if there is no such branch. */
+    public String branchPointer(String branch) {
+        File pointer = branchFile(branch);
+        if (!Journal.exists(pointer)) {
+            return null;
+        }
+        return new String(Journal.read(pointer), StandardCharsets.UTF_8);
+    }
+
+    /** Checks if the object with given full ID and TYPE is stored, loose
+     * or packed. */
+    public boolean contains(String id, byte type) {
+        return looseFile(id, type) != null || packOf(id) != null;
+    }
+
+    /** Returns a stream of the stored bytes of an object of TYPE. */
+    public InputStream openStored(String id, byte type) {
+        try {
+            File file = looseFile(id, type);
+            if (file != null) {
+                return Files.newInputStream(file.toPath());
+            }
+            Pack pack = packOf(id);
+            if (pack != null) {
+                return pack.open(id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        throw error("Object %s is missing from %s.", id, gitletDir);
+    }
+
+    /** Copies to DEST every object reachable from the commit HEAD that DEST
+     * lacks, all in one new pack, and returns the commits copied, each after
+     * its parents. The walk stops at commits DEST has, whose history it
+     * has as well, and the same goes for trees, so only the missing part
+     * of the history is read. Objects are packed with the type they are
+     * referred to with. */
+    public LinkedHashMap<String, Commit> copyTo(Remote dest, String head) {
+        Map<String, Commit> commits = new HashMap<>();
+        Map<String, Byte> missing = new HashMap<>();
+        Queue<String> queue = new ArrayDeque<>();
+        queue.add(head);
+        while (!queue.isEmpty()) {
+            String commitID = queue.remove();
+            if (commits.containsKey(commitID) || dest.contains(commitID, ObjectStore.COMMIT)) {
+                continue;
+            }
+            Commit commit = Commit.decode(ObjectStore.inflate(openStored(commitID, ObjectStore.COMMIT)));
+            commits.put(commitID, commit);
+            missing.put(commitID, ObjectStore.COMMIT);
+            if (commit.hasTree()) {
+                addTree(commit.getTreeID(), dest, missing);
+            } else {
+                for (String blobID : commit.getFilesMapping().values()) {
+                    addBlob(blobID, dest, missing);
+                }
+            }
+            for (String parent : new String[] {commit.getParentID(),
+                                               commit.getSecondParentID()}) {
+                if (parent != null) {
+                    queue.add(parent);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            Pack.write(join(dest.objectsDir, "pack"), this, missing);
+        }
+        return parentsFirst(commits);
+    }
+
+    /** Adds to MISSING a tree and everything under it that DEST lacks. */
+    private void addTree(String treeID, Remote dest, Map<String, Byte> missing) {
+        if (missing.containsKey(treeID) || dest.contains(treeID, ObjectStore.TREE)) {
+            return;
+        }
+        missing.put(treeID, ObjectStore.TREE);
+        Tree tree = Tree.decode(ObjectStore.inflate(openStored(treeID, ObjectStore.TREE)));
+        for (String blobID : tree.getFiles().values()) {
+            addBlob(blobID, dest, missing);
+        }
+        for (String subtreeID : tree.getDirectories().values()) {
+            addTree(subtreeID, dest, missing);
+        }
+    }
+
+    /** Adds to MISSING a blob DEST lacks, with the delta base or the chunks
+     * it is rebuilt from. */
+    private void addBlob(String blobID, Remote dest, Map<String, Byte> missing) {
+        if (missing.containsKey(blobID) || dest.contains(blobID, ObjectStore.BLOB)) {
+            return;
+        }
+        missing.put(blobID, ObjectStore.BLOB);
+        for (String id : ObjectStore.references(openStored(blobID, ObjectStore.BLOB))) {
+            addBlob(id, dest, missing);
+        }
+    }
+
+    /** Returns COMMITS ordered so that each comes after those of its
+     * parents that are among them. */
+    private static LinkedHashMap<String, Commit> parentsFirst(Map<String, Commit> commits) {
+        LinkedHashMap<String, Commit> ordered = new LinkedHashMap<>();
+        Deque<String> stack = new ArrayDeque<>(commits.keySet());
+        while (!stack.isEmpty()) {
+            String commitID = stack.peek();
+            if (ordered.containsKey(commitID)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = commits.get(commitID);
+            boolean ready = true;
+            for (String parent : new String[] {commit.getParentID(),
+                                               commit.getSecondParentID()}) {
+                if (parent != null && commits.containsKey(parent)
+                        && !ordered.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                ordered.put(commitID, commit);
+            }
+        }
+        return ordered;
+    }
+
+    /** Returns the loose file of an object, in its fanout directory or,
+     * from before fanout directories, directly under the objects
+     * directory, or null if it is not loose. Commits were named by their
+     * abbreviated ID there, others by the full one. */
+    private File looseFile(String id, byte type) {
+        String legacyName = type == ObjectStore.COMMIT ? id.substring(0, 8) : id;
+        File[] candidates = {join(objectsDir, id.substring(0, 2), id.substring(2)),
+                             join(objectsDir, legacyName)};
+        for (File file : candidates) {
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the pack holding an object, or null if it is not packed. */
+    private Pack packOf(String id) {
+        for (Pack pack : packs) {
+            if (pack.typeOf(id) != 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+}
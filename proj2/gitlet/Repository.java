@@ -1,7 +1,22 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -18,55 +33,103 @@ public class Repository {
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
     /** Stores pointer (the latest commit) of each branch. File name is branch name. */
     public static final File BRANCH_POINTER_DIR = join(GITLET_DIR, "refs", "heads");
+    /** Stores the staging area. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
 
     public static void initCommand() {
         if (GITLET_DIR.exists()) {
-            message("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("A Gitlet version-control system already exists in the current directory.");
         }
         GITLET_DIR.mkdir();
         OBJECTS_DIR.mkdir();
 
         /** Creates the initial commit and generates SHA1 of this commit. */
         Commit initialCommit = new Commit();
-        String initialCommitID = sha1(serialize(initialCommit));
+        String initialCommitID = initialCommit.getCommitID();
         initialCommit.saveCommit(initialCommitID);
 
         /** Creates master branch, which points to the initial commit. */
         BRANCH_POINTER_DIR.mkdirs();
         File masterBranchPointer = join(BRANCH_POINTER_DIR, "master");
-        writeContents(masterBranchPointer, initialCommitID);
+        Journal.write(masterBranchPointer, initialCommitID.getBytes(StandardCharsets.UTF_8));
 
         /** Let HEAD point to current branch (master branch for now). */
         Repository.setHEAD("master");
     }
 
-    public static void addCommand(String fileName) {
-        /** Gets SHA1 according to the file's content. */
-        String fileContent = Blob.readFileFromDisc(fileName);
-        String fileSHA1 = sha1(fileContent);
+    /** Stages the given files, and every file under the given directories.
+     * Files are hashed and their blobs written in parallel, and the staging
+     * area is read and saved only once. */
+    public static void addCommand(String... paths) {
+        Set<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            fileNames.addAll(filesUnder(path));
+        }
+        /** Gets SHA1 according to each file's content, reusing the stat cache. */
+        Map<String, String> fileSHA1s = fileNames.parallelStream()
+                .collect(Collectors.toConcurrentMap(f -> f, StatCache::sha1Of));
 
         /** Gets mapping info from the staging area and parent commit. */
         TreeMap<String, String> stagingArea = Repository.getStagingArea();
         TreeMap<String, String> parentFilesMapping = Commit.getCurrentCommit().getFilesMapping();
 
-        /**
-         * If current working version of the file is the same as in parent commit,
-         * the remove method will remove the file from staging area if it exists.
-         * */
-        if (fileSHA1.equals(parentFilesMapping.get(fileName))) {
-            if (stagingArea.remove(fileName) != null) {
-                Repository.saveStagingArea(stagingArea);
+        /** Maps the SHA1 of each new blob to one file with that content. */
+        Map<String, String> newBlobs = new HashMap<>();
+        boolean changed = false;
+        for (String fileName : fileNames) {
+            String fileSHA1 = fileSHA1s.get(fileName);
+            /**
+             * If current working version of the file is the same as in parent commit,
+             * the remove method will remove the file from staging area if it exists.
+             * */
+            if (fileSHA1.equals(parentFilesMapping.get(fileName))) {
+                changed |= stagingArea.remove(fileName) != null;
+            /** If current working version of the file is different from parent commit. */
+            } else if (!fileSHA1.equals(stagingArea.get(fileName))) {
+                stagingArea.put(fileName, fileSHA1);
+                newBlobs.putIfAbsent(fileSHA1, fileName);
+                changed = true;
             }
-        /** If current working version of the file is different from parent commit. */
-        } else if (!stagingArea.containsKey(fileName)
-                || !fileSHA1.equals(stagingArea.get(fileName))) {
-            stagingArea.put(fileName, fileSHA1);
+        }
+        newBlobs.entrySet().parallelStream().forEach(entry -> Blob.writeFileToBlob(
+                entry.getValue(), entry.getKey(), parentFilesMapping.get(entry.getValue())));
+        if (changed) {
             Repository.saveStagingArea(stagingArea);
-            Blob.writeFileToBlob(fileContent, fileSHA1);
         }
     }
 
+    /** Returns the name of the file at PATH relative to CWD, or the names of
+     * all files under it if it is a directory, with .gitlet left out. */
+    private static List<String> filesUnder(String path) {
+        Path cwd = CWD.toPath().toAbsolutePath().normalize();
+        Path start = cwd.resolve(path).normalize();
+        if (!start.startsWith(cwd) || !Files.exists(start)) {
+            throw error("File does not exist.");
+        }
+        List<String> fileNames = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(cwd.resolve(GITLET_DIR.getName()))
+                            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        fileNames.add(cwd.relativize(file).toString()
+                                .replace(File.separatorChar, '/'));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return fileNames;
+    }
+
     /** Creates a normal commit. */
     public static void commitCommand(String message) {
         String parentID = Repository.getCurrentBranchPointer();
@@ -76,28 +139,29 @@ public class Repository {
     public static void mergeCommit(String message, String parentID1, String parentID2) {
         TreeMap<String, String> stagingArea = Repository.getStagingArea();
         if (stagingArea.isEmpty()) {
-            message("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
-        TreeMap<String, String> filesMapping = Commit.getCurrentCommit().getFilesMapping();
         /**
-         * Iterates through stagingArea,
-         * if the value for a key is "remove", then remove it from newCommit,
-         * otherwise replace the value with the one in stagingArea.
+         * Applies stagingArea to the tree of the current commit:
+         * files whose value is "remove" are dropped, the others take the
+         * staged blob. Only directories containing staged files are rewritten.
          * */
-        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            if (value.equals("remove")) {
-                filesMapping.remove(key);
-            } else {
-                filesMapping.put(key, value);
-            }
-        }
-
-        Commit newCommit = new Commit(message, parentID1, filesMapping);
+        Commit currentCommit = Commit.getCurrentCommit();
+        String treeID;
+        if (currentCommit.hasTree()) {
+            treeID = Tree.update(currentCommit.getTreeID(), stagingArea);
+        } else {
+            /** A commit made before trees has none, so the new tree is built
+             * from its files, without writing trees for it that nothing
+             * would refer to. */
+            TreeMap<String, String> changes = new TreeMap<>(currentCommit.getFilesMapping());
+            changes.putAll(stagingArea);
+            treeID = Tree.update(null, changes);
+        }
+
+        Commit newCommit = new Commit(message, parentID1, treeID);
         newCommit.setSecondParentID(parentID2);
-        String newCommitID = sha1(serialize(newCommit));
+        String newCommitID = newCommit.getCommitID();
         newCommit.saveCommit(newCommitID);
 
         Repository.setCurrentBranchPointer(newCommitID);
@@ -110,8 +174,7 @@ public class Repository {
         TreeMap<String, String> filesMapping = Commit.getCurrentCommit().getFilesMapping();
 
         if (!stagingArea.containsKey(fileName) && !filesMapping.containsKey(fileName)) {
-            message("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
         /** Unstages the files if it's currently staged for addition. */
         if (stagingArea.containsKey(fileName)) {
@@ -120,49 +183,113 @@ public class Repository {
         /** If tracked in current commit, stages it for removal and remove file from CWD. */
         if (filesMapping.containsKey(fileName)) {
             stagingArea.put(fileName, "remove");
-            File file = join(CWD, fileName);
-            restrictedDelete(file);
+            deleteWorkingFile(fileName);
         }
 
         Repository.saveStagingArea(stagingArea);
     }
 
-    public static void logCommand() {
-        Commit commit = Commit.getCurrentCommit();
-        String commitInfo;
-        StringBuilder commitsHistory = new StringBuilder();
+    /** Prints the history of the current branch through first parents.
+     * Each commit is written out as soon as it is read, and the walk stops
+     * after the count given with -n, or at the first commit older than the
+     * date given with --since, as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss. With
+     * -- PATH, only commits that changed the file or directory PATH from
+     * their first parent are printed. Their changed-path filters rule out
+     * most other commits without reading their trees. */
+    public static void logCommand(String... options) {
+        int limit = Integer.MAX_VALUE;
+        Date since = null;
+        String path = null;
+        for (int i = 0; i < options.length; i += 1) {
+            if (options[i].equals("--") && i + 2 == options.length) {
+                i += 1;
+                path = options[i].replaceAll("/+$", "");
+            } else if (options[i].equals("-n") && i + 1 < options.length) {
+                i += 1;
+                limit = parseCount(options[i]);
+            } else if (options[i].equals("--since") && i + 1 < options.length) {
+                i += 1;
+                since = parseDate(options[i]);
+            } else if (options[i].startsWith("--since=")) {
+                since = parseDate(options[i].substring("--since=".length()));
+            } else {
+                throw error("Incorrect operands.");
+            }
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
         String commitID = Repository.getCurrentBranchPointer();
-        String mergeInfo = "";
-        /** For commits with second parent. */
-        if (commit.getSecondParentID() != null) {
-            mergeInfo = "Merge: "
-                    + commit.getParentID().substring(0, 7) + " "
-                    + commit.getSecondParentID().substring(0, 7) + "\n";
-        }
-        while (commit != null) {
-            commitInfo = "===" + "\n"
-                    + "commit " + commitID + "\n"
-                    + mergeInfo
-                    + "Date: " + commit.getTimestamp() + "\n"
-                    + commit.getMessage() + "\n"
-                    + " " + "\n";
+        try {
+            int count = 0;
+            while (commitID != null && count < limit) {
+                Commit commit = Commit.getCommit(commitID);
+                if (since != null && commit.getDate().before(since)) {
+                    break;
+                }
+                if (path == null || changes(commitID, commit, path)) {
+                    count += 1;
+                    out.write("===\n");
+                    out.write("commit " + commitID + "\n");
+                    /** For commits with second parent. */
+                    if (commit.getSecondParentID() != null) {
+                        out.write("Merge: " + commit.getParentID().substring(0, 7) + " "
+                                + commit.getSecondParentID().substring(0, 7) + "\n");
+                    }
+                    out.write("Date: " + commit.getTimestamp() + "\n");
+                    out.write(commit.getMessage() + "\n");
+                    out.write(" \n");
+                }
+                commitID = commit.getParentID();
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Checks if the commit COMMITID changed PATH from its first parent. */
+    private static boolean changes(String commitID, Commit commit, String path) {
+        if (!ChangedPaths.mayHaveChanged(commitID, commit, path)) {
+            return false;
+        }
+        Commit parent = Commit.getCommit(commit.getParentID());
+        String before = parent == null ? null : parent.entryID(path);
+        return !Objects.equals(before, commit.entryID(path));
+    }
+
+    private static int parseCount(String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            /** Reported below. */
+        }
+        throw error("Incorrect operands.");
+    }
 
-            commitsHistory.append(commitInfo);
-            commitID = commit.getParentID();
-            commit = Commit.getCommit(commitID);
+    /** Parses a date of --since in the local time zone. */
+    private static Date parseDate(String value) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"}) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date;
+            }
         }
-        System.out.print(commitsHistory);
+        throw error("Incorrect operands.");
     }
 
     public static void globalLogCommand() {
         StringBuilder allCommits = new StringBuilder();
-        for (String fileName : Commit.commitFileNames()) {
-            Commit commit = Commit.getCommit(fileName);
-            String commitID = sha1(serialize(commit));
+        for (CommitIndex.Entry entry : CommitIndex.entries()) {
             String commitInfo = "===" + "\n"
-                    + "commit " + commitID + "\n"
-                    + "Date: " + commit.getTimestamp() + "\n"
-                    + commit.getMessage() + "\n"
+                    + "commit " + entry.getCommitID() + "\n"
+                    + "Date: " + entry.getTimestamp() + "\n"
+                    + entry.getMessage() + "\n"
                     + " " + "\n";
             allCommits.append(commitInfo);
         }
@@ -170,27 +297,20 @@ public class Repository {
     }
 
     public static void findCommand(String message) {
-        List<String> files = plainFilenamesIn(OBJECTS_DIR);
-        StringBuilder allCommitIDs = new StringBuilder();
-        for (String fileName : files) {
-            if (fileName.length() <= 8) {
-                Commit commit = Commit.getCommit(fileName);
-                if (commit.getMessage().equals(message)) {
-                    String commitID = sha1(serialize(commit));
-                    allCommitIDs.append(commitID + "\n");
-                }
-            }
+        List<String> commitIDs = CommitIndex.find(message);
+        if (commitIDs.isEmpty()) {
+            throw error("Found no commit with that message.");
         }
-        if (allCommitIDs.length() == 0) {
-            message("Found no commit with that message.");
-            System.exit(0);
+        StringBuilder allCommitIDs = new StringBuilder();
+        for (String commitID : commitIDs) {
+            allCommitIDs.append(commitID + "\n");
         }
         System.out.print(allCommitIDs);
     }
 
     public static void statusCommand() {
-        List<String> branchList = plainFilenamesIn(BRANCH_POINTER_DIR);
-        List<String> cwdFiles = plainFilenamesIn(CWD);
+        List<String> branchList = Repository.branchNames();
+        List<String> cwdFiles = filesUnder(".");
         StringBuilder status = new StringBuilder();
 
         TreeMap<String, String> stagingArea = Repository.getStagingArea();
@@ -227,14 +347,14 @@ public class Repository {
         for (String str : stageForRemove) {
             status.append(str + "\n");
         }
+        /** Only tracked or staged files are hashed, through the stat cache. */
         for (String fileName : cwdFiles) {
-            String fileContent = Blob.readFileFromDisc(fileName);
             if (filesMapping.containsKey(fileName)
-                    && !sha1(fileContent).equals(filesMapping.get(fileName))
-                    && !stagingArea.containsKey(fileName)) {
+                    && !stagingArea.containsKey(fileName)
+                    && !StatCache.sha1Of(fileName).equals(filesMapping.get(fileName))) {
                 modifiedNotStaged.add(fileName);
             } else if (Blob.isStagedToAdd(fileName, stagingArea)
-                    && !sha1(fileContent).equals(stagingArea.get(fileName))) {
+                    && !StatCache.sha1Of(fileName).equals(stagingArea.get(fileName))) {
                 modifiedNotStaged.add(fileName);
             } else if (!filesMapping.containsKey(fileName)
                     && !Blob.isStagedToAdd(fileName, stagingArea)) {
@@ -267,6 +387,105 @@ public class Repository {
         System.out.println(status);
     }
 
+    /** Prints the differences between two versions of the tracked files.
+     * With no operands, the working directory is compared with the staging
+     * area; with --cached, the staging area with the current commit; with a
+     * commit ID, that commit with the working directory; and with two commit
+     * IDs, the first commit with the second. Files with the same blob on both
+     * sides are skipped without being read. */
+    public static void diffCommand(String... operands) {
+        TreeMap<String, String> oldMapping;
+        TreeMap<String, String> newMapping;
+        boolean newInCWD = false;
+        if (operands.length == 0) {
+            oldMapping = indexMapping();
+            newMapping = cwdMapping(oldMapping.keySet());
+            newInCWD = true;
+        } else if (operands[0].equals("--cached") || operands[0].equals("--staged")) {
+            if (operands.length != 1) {
+                throw error("Incorrect operands.");
+            }
+            oldMapping = Commit.getCurrentCommit().getFilesMapping();
+            newMapping = indexMapping();
+        } else if (operands.length == 1) {
+            oldMapping = Commit.getCommit(operands[0]).getFilesMapping();
+            Set<String> fileNames = new TreeSet<>(oldMapping.keySet());
+            fileNames.addAll(indexMapping().keySet());
+            newMapping = cwdMapping(fileNames);
+            newInCWD = true;
+        } else {
+            oldMapping = Commit.getCommit(operands[0]).getFilesMapping();
+            newMapping = Commit.getCommit(operands[1]).getFilesMapping();
+        }
+
+        Set<String> fileNames = new TreeSet<>(oldMapping.keySet());
+        fileNames.addAll(newMapping.keySet());
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (String fileName : fileNames) {
+                String oldSHA1 = oldMapping.get(fileName);
+                String newSHA1 = newMapping.get(fileName);
+                if (Objects.equals(oldSHA1, newSHA1)) {
+                    continue;
+                }
+                byte[] oldContents = oldSHA1 == null ? new byte[0]
+                        : Blob.readBlobUpTo(oldSHA1, Blob.DELTA_LIMIT);
+                byte[] newContents;
+                if (newSHA1 == null) {
+                    newContents = new byte[0];
+                } else if (newInCWD) {
+                    File file = join(CWD, fileName);
+                    newContents = file.length() > Blob.DELTA_LIMIT ? null : readContents(file);
+                } else {
+                    newContents = Blob.readBlobUpTo(newSHA1, Blob.DELTA_LIMIT);
+                }
+                Diff.unified(oldSHA1 == null ? null : fileName, newSHA1 == null ? null : fileName,
+                        oldContents, newContents, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Prints the commit that last changed each line of FILENAME, as of the
+     * commit COMMITID, or of the current commit if COMMITID is null. */
+    public static void blameCommand(String commitID, String fileName) {
+        commitID = commitID == null ? getCurrentBranchPointer() : Commit.resolveID(commitID);
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            Blame.write(commitID, fileName, out);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the files of the current commit with the staging area applied. */
+    private static TreeMap<String, String> indexMapping() {
+        TreeMap<String, String> filesMapping =
+                new TreeMap<>(Commit.getCurrentCommit().getFilesMapping());
+        for (Map.Entry<String, String> entry : Repository.getStagingArea().entrySet()) {
+            if (entry.getValue().equals("remove")) {
+                filesMapping.remove(entry.getKey());
+            } else {
+                filesMapping.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return filesMapping;
+    }
+
+    /** Returns the SHA1 of each of the given files present in the working directory. */
+    private static TreeMap<String, String> cwdMapping(Set<String> fileNames) {
+        TreeMap<String, String> filesMapping = new TreeMap<>();
+        for (String fileName : fileNames) {
+            if (join(CWD, fileName).isFile()) {
+                filesMapping.put(fileName, StatCache.sha1Of(fileName));
+            }
+        }
+        return filesMapping;
+    }
+
     /** Checks out a file from current branch. */
     public static void checkoutFile(String fileName) {
         String commitID = Repository.getCurrentBranchPointer();
@@ -277,17 +496,14 @@ public class Repository {
         Commit commit = Commit.getCommit(commitID);
         TreeMap<String, String> filesMapping = commit.getFilesMapping();
         if (!filesMapping.containsKey(fileName)) {
-            message("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
-        String fileContent = Blob.readFileFromBlob(filesMapping.get(fileName));
-        Blob.writeFileToDisk(fileContent, fileName);
+        Blob.writeBlobToFile(filesMapping.get(fileName), fileName);
     }
     /** Checks out an entire branch. */
     public static void checkoutBranch(String branch) {
         if (Repository.getHEAD().equals(branch)) {
-            message("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
 
         String branchPointer = Repository.getBranchPointer(branch);
@@ -301,63 +517,96 @@ public class Repository {
         Repository.setHEAD(branch);
         Repository.clearStagingArea();
     }
-    /** Updates file contents in working directory,
-     * given the mapping of file names to blob references. */
+    /** Updates the working directory from the files of CURRENTFILESMAPPING
+     * to those of SOURCEFILESMAPPING. Both mappings are walked together in
+     * name order, and only files whose blob differs between them are checked
+     * for untracked files in the way, written or deleted. A file with the
+     * same blob in both is only written again if it was changed in the
+     * working directory, which the stat cache tells without reading it. */
     private static void updateCWD(TreeMap<String, String> sourceFilesMapping,
                            TreeMap<String, String> currentFilesMapping) {
-        /** Takes all files in the given branch, puts them into WD. */
-        for (Map.Entry<String, String> entry : sourceFilesMapping.entrySet()) {
-            String fileName = entry.getKey();
-            String branchFileSHA1 = entry.getValue();
-
-            if (!currentFilesMapping.containsKey(fileName)
-                    && Blob.isOverwrittenBy(fileName, sourceFilesMapping)) {
-                message("There is an untracked file in the way;"
-                        + " delete it, or add and commit it first.");
-                System.exit(0);
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        List<String> toDelete = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> sourceIter = sourceFilesMapping.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> currentIter = currentFilesMapping.entrySet().iterator();
+        Map.Entry<String, String> source = sourceIter.hasNext() ? sourceIter.next() : null;
+        Map.Entry<String, String> current = currentIter.hasNext() ? currentIter.next() : null;
+        while (source != null || current != null) {
+            int cmp = source == null ? 1
+                    : current == null ? -1 : source.getKey().compareTo(current.getKey());
+            if (cmp < 0) {
+                /** Checks every file before any is written, so a checkout is
+                 * not left half done by an untracked file. */
+                if (Blob.isOverwrittenBy(source.getKey(), sourceFilesMapping)) {
+                    throw error("There is an untracked file in the way;"
+                            + " delete it, or add and commit it first.");
+                }
+                toWrite.put(source.getKey(), source.getValue());
+            } else if (cmp > 0) {
+                toDelete.add(current.getKey());
+            } else if (!source.getValue().equals(current.getValue())
+                    || !join(CWD, source.getKey()).exists()
+                    || !StatCache.sha1Of(source.getKey()).equals(source.getValue())) {
+                toWrite.put(source.getKey(), source.getValue());
+            }
+            if (cmp <= 0) {
+                source = sourceIter.hasNext() ? sourceIter.next() : null;
+            }
+            if (cmp >= 0) {
+                current = currentIter.hasNext() ? currentIter.next() : null;
             }
-            String fileContent = Blob.readFileFromBlob(branchFileSHA1);
-            Blob.writeFileToDisk(fileContent, fileName);
         }
+        Blob.writeBlobsToFiles(toWrite);
         /** Deletes files tracked in the current branch
          * but are not present in the checked-out branch. */
-        for (Map.Entry<String, String> entry : currentFilesMapping.entrySet()) {
-            String fileName = entry.getKey();
-            if (!sourceFilesMapping.containsKey(fileName)) {
-                File file = join(CWD, fileName);
-                restrictedDelete(file);
-            }
+        for (String fileName : toDelete) {
+            deleteWorkingFile(fileName);
+        }
+    }
+
+    /** Deletes the working file FILENAME, a path relative to CWD, then each
+     * directory that held it and is left empty, up to CWD. */
+    private static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (file.isDirectory()) {
+            return;
+        }
+        file.delete();
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
         }
     }
 
     public static void branchCommand(String branch) {
+        if (branch.endsWith(Journal.LOCK_SUFFIX)) {
+            throw error("A branch name cannot end with %s.", Journal.LOCK_SUFFIX);
+        }
         File branchPointer = join(BRANCH_POINTER_DIR, branch);
-        if (branchPointer.exists()) {
-            message("A branch with that name already exists.");
-            System.exit(0);
+        if (Journal.exists(branchPointer)) {
+            throw error("A branch with that name already exists.");
         }
         /** Gets the current branch pointer and updates new branch's pointer. */
         String headPointer = Repository.getCurrentBranchPointer();
-        writeContents(branchPointer, headPointer);
+        Journal.write(branchPointer, headPointer.getBytes(StandardCharsets.UTF_8));
     }
 
     public static void removeBranchCommand(String branch) {
         String currentBranch = Repository.getHEAD();
         if (branch.equals(currentBranch)) {
-            message("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
         File branchPointer = join(BRANCH_POINTER_DIR, branch);
-        if (!branchPointer.exists()) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+        if (!Journal.exists(branchPointer)) {
+            throw error("A branch with that name does not exist.");
         }
-        branchPointer.delete();
+        Journal.delete(branchPointer);
     }
 
     public static void resetCommand(String commitID) {
         /** Checks out all the files tracked by the given commit. */
+        commitID = Commit.resolveID(commitID);
         Commit commit = Commit.getCommit(commitID);
         TreeMap<String, String> sourceFilesMapping = commit.getFilesMapping();
         TreeMap<String, String> currentFilesMapping = Commit.getCurrentCommit().getFilesMapping();
@@ -369,30 +618,26 @@ public class Repository {
 
     public static void mergeCommand(String branch) {
         if (!Repository.getStagingArea().isEmpty()) {
-            message("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
-        if (!join(BRANCH_POINTER_DIR, branch).exists()) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+        if (!Journal.exists(join(BRANCH_POINTER_DIR, branch))) {
+            throw error("A branch with that name does not exist.");
         }
         String currBranchName = getHEAD();
         if (currBranchName.equals(branch)) {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
         String otherBrPointer = Repository.getBranchPointer(branch);
         String currBrPointer = Repository.getCurrentBranchPointer();
         if (Commit.isAncestor(otherBrPointer, currBrPointer)) {
-            message("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw error("Given branch is an ancestor of the current branch.");
         }
         String splitPoint = Commit.findSpitPoint(currBranchName, branch);
         if (splitPoint.equals(currBrPointer)) {
             checkoutBranch(branch);
             Repository.setCurrentBranchPointer(otherBrPointer);
             message("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
         TreeMap<String, String> currMapping = Commit.getCurrentCommit().getFilesMapping();
         TreeMap<String, String> splitMapping = Commit.getCommit(splitPoint).getFilesMapping();
@@ -404,9 +649,8 @@ public class Repository {
             if (!splitMapping.containsKey(otherFileName)
                     && !currMapping.containsKey(otherFileName)) {
                 if (Blob.isOverwrittenBy(otherFileName, otherMapping)) {
-                    message("There is an untracked file in the way; "
+                    throw error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
                 checkoutFile(otherBrPointer, otherFileName);
                 addCommand(otherFileName);
@@ -429,7 +673,7 @@ public class Repository {
             }
             /** Handles file modified differently in current and given branches. */
             if (Blob.isModifiedDiff(fileName, splitMapping, currMapping, otherMapping)) {
-                Blob.handleConflict(fileName, currMapping, otherMapping);
+                Blob.mergeFile(fileName, splitMapping, currMapping, otherMapping);
                 addCommand(fileName);
             }
         }
@@ -439,7 +683,7 @@ public class Repository {
             if (!splitMapping.containsKey(currFileName)
                     && otherMapping.containsKey(currFileName)
                     && !otherMapping.get(currFileName).equals(entry.getValue())) {
-                Blob.handleConflict(currFileName, currMapping, otherMapping);
+                Blob.mergeFile(currFileName, splitMapping, currMapping, otherMapping);
                 addCommand(currFileName);
             }
         }
@@ -448,18 +692,171 @@ public class Repository {
         mergeCommit(message, currBrPointer, otherBrPointer);
     }
 
+    /** Packs all loose objects, so that the objects directory stays small. */
+    public static void gcCommand() {
+        Pack.repack();
+    }
+
+    /** Prints how many objects are stored loose and packed and how much
+     * space they take, then how well chunked blobs share their chunks: the
+     * dedup ratio is the total size of chunked blobs over the size of the
+     * distinct chunks stored for them. */
+    public static void countObjectsCommand() {
+        TreeMap<String, File> loose = ObjectStore.looseObjects();
+        long looseBytes = 0;
+        for (File file : loose.values()) {
+            looseBytes += file.length();
+        }
+        Set<String> ids = new TreeSet<>(loose.keySet());
+        ids.addAll(Pack.objectIDs("", ObjectStore.BLOB));
+        int chunkedBlobs = 0;
+        int chunkCount = 0;
+        long logicalBytes = 0;
+        Map<String, Integer> distinct = new HashMap<>();
+        for (String id : ids) {
+            List<Chunker.Chunk> chunks = ObjectStore.chunksOf(id);
+            if (chunks == null) {
+                continue;
+            }
+            chunkedBlobs += 1;
+            chunkCount += chunks.size();
+            for (Chunker.Chunk chunk : chunks) {
+                logicalBytes += chunk.getLength();
+                distinct.put(chunk.getID(), chunk.getLength());
+            }
+        }
+        long distinctBytes = 0;
+        for (int length : distinct.values()) {
+            distinctBytes += length;
+        }
+        message("count: %d", loose.size());
+        message("size: %d KB", looseBytes / 1024);
+        message("in-pack: %d", Pack.objectCount());
+        message("packs: %d", Pack.packCount());
+        message("size-pack: %d KB", Pack.storedBytes() / 1024);
+        message("chunked-blobs: %d", chunkedBlobs);
+        message("chunks: %d (%d distinct)", chunkCount, distinct.size());
+        message("dedup-ratio: %.2f",
+                distinctBytes == 0 ? 1.0 : (double) logicalBytes / distinctBytes);
+    }
+
+    /** Verifies every stored object and its reachability from the
+     * branches, printing the corrupt, missing and dangling objects found. */
+    public static void fsckCommand() {
+        Fsck.check();
+    }
+
+    /** Saves PATH, a .gitlet directory written with forward slashes, as the
+     * remote NAME. A relative path is taken from the working directory. */
+    public static void addRemoteCommand(String name, String path) {
+        File config = join(Remote.REMOTES_DIR, name);
+        if (Journal.exists(config)) {
+            throw error("A remote with that name already exists.");
+        }
+        Remote.REMOTES_DIR.mkdir();
+        String dir = CWD.toPath().resolve(path.replace("/", File.separator))
+                .normalize().toString();
+        Journal.write(config, dir.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void removeRemoteCommand(String name) {
+        File config = join(Remote.REMOTES_DIR, name);
+        if (!Journal.exists(config)) {
+            throw error("A remote with that name does not exist.");
+        }
+        Journal.delete(config);
+    }
+
+    /** Copies the commits of BRANCH of the remote that this repository
+     * lacks, with their trees and blobs, and points the branch REMOTE/BRANCH
+     * at the head of BRANCH. */
+    public static void fetchCommand(String remoteName, String branch) {
+        Remote remote = Remote.named(remoteName);
+        String remoteHead = remote.branchPointer(branch);
+        if (remoteHead == null) {
+            throw error("That remote does not have that branch.");
+        }
+        LinkedHashMap<String, Commit> commits = remote.copyTo(Remote.local(), remoteHead);
+        Pack.reload();
+        /** The branch is updated first, so a commit-graph rebuilt while the
+         * new commits are added finds them. */
+        File branchPointer = join(BRANCH_POINTER_DIR, remoteName, branch);
+        branchPointer.getParentFile().mkdir();
+        Journal.write(branchPointer, remoteHead.getBytes(StandardCharsets.UTF_8));
+        /** A missing commit index is built on next use from every commit
+         * object, the fetched ones included, so they are not added to it. */
+        boolean indexed = CommitIndex.INDEX_FILE.exists();
+        for (Map.Entry<String, Commit> entry : commits.entrySet()) {
+            Commit commit = entry.getValue();
+            CommitGraph.add(entry.getKey(), commit.getParentID(), commit.getSecondParentID());
+            if (indexed) {
+                CommitIndex.add(entry.getKey(), commit);
+            }
+            ChangedPaths.add(entry.getKey(), commit);
+        }
+    }
+
+    /** Copies the commits of the current branch that the remote lacks, with
+     * their trees and blobs, and points BRANCH of the remote at the current
+     * head. The head of BRANCH must be in the history of the current head. */
+    public static void pushCommand(String remoteName, String branch) {
+        Remote remote = Remote.named(remoteName);
+        String head = getCurrentBranchPointer();
+        String remoteHead = remote.branchPointer(branch);
+        if (remoteHead != null && !(ObjectStore.contains(remoteHead, ObjectStore.COMMIT)
+                && Commit.isAncestor(remoteHead, head))) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        /** Held from here on, so another push to BRANCH fails rather than
+         * being overwritten. */
+        Journal.lock(remote.branchFile(branch));
+        Remote.local().copyTo(remote, head);
+        Journal.write(remote.branchFile(branch), head.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Fetches BRANCH of the remote, then merges REMOTE/BRANCH into the
+     * current branch. */
+    public static void pullCommand(String remoteName, String branch) {
+        fetchCommand(remoteName, branch);
+        /** The fetch is committed on its own, so a merge that fails keeps
+         * the fetched branch. The staging area is locked again for the merge. */
+        Journal.commit();
+        Journal.lock(INDEX_FILE);
+        mergeCommand(remoteName + "/" + branch);
+    }
+
     /** Sets the HEAD pointer. */
     public static void setHEAD(String branch) {
         File head = join(GITLET_DIR, "HEAD");
         String info = "ref: refs/heads/" + branch;
-        writeContents(head, info);
+        Journal.write(head, info.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the names of all branches in order, leaving out the locks of
+     * pointers being updated. Branches fetched from a remote are named
+     * REMOTE/BRANCH and kept in the subdirectory of the remote. */
+    public static List<String> branchNames() {
+        List<String> branches = new ArrayList<>();
+        File[] files = BRANCH_POINTER_DIR.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            List<String> names = file.isDirectory() ? plainFilenamesIn(file)
+                    : Collections.singletonList(file.getName());
+            String prefix = file.isDirectory() ? file.getName() + "/" : "";
+            for (String name : names) {
+                if (!name.endsWith(Journal.LOCK_SUFFIX)) {
+                    branches.add(prefix + name);
+                }
+            }
+        }
+        Collections.sort(branches);
+        return branches;
     }
 
     /** Returns current branch's name. */
     public static String getHEAD() {
         File head = join(GITLET_DIR, "HEAD");
-        String[] info = readContentsAsString(head).split("/");
-        return info[info.length - 1];
+        String info = new String(Journal.read(head), StandardCharsets.UTF_8);
+        return info.substring("ref: refs/heads/".length());
     }
 
     /** Returns current branch's latest commit ID. */
@@ -471,30 +868,28 @@ public class Repository {
     /** Returns given branch's pointer (latest commit ID). */
     public static String getBranchPointer(String branch) {
         File branchPointer = join(BRANCH_POINTER_DIR, branch);
-        if (!branchPointer.exists()) {
-            message("No such branch exists.");
-            System.exit(0);
+        if (!Journal.exists(branchPointer)) {
+            throw error("No such branch exists.");
         }
-        return readContentsAsString(branchPointer);
+        return new String(Journal.read(branchPointer), StandardCharsets.UTF_8);
     }
 
     public static void setCurrentBranchPointer(String commitID) {
         String branch = getHEAD();
         File currentBranchPointer = join(BRANCH_POINTER_DIR, branch);
-        writeContents(currentBranchPointer, commitID);
+        Journal.write(currentBranchPointer, commitID.getBytes(StandardCharsets.UTF_8));
     }
 
+    @SuppressWarnings("unchecked")
     public static TreeMap<String, String> getStagingArea() {
-        File index = join(GITLET_DIR, "index");
-        if (!index.exists()) {
+        if (!Journal.exists(INDEX_FILE)) {
             return new TreeMap<>();
         }
-        return readObject(index, TreeMap.class);
+        return deserialize(Journal.read(INDEX_FILE), TreeMap.class);
     }
 
     public static void saveStagingArea(TreeMap<String, String> stagingArea) {
-        File index = join(GITLET_DIR, "index");
-        writeObject(index, stagingArea);
+        Journal.write(INDEX_FILE, serialize(stagingArea));
     }
 
     public static void clearStagingArea() {
@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/** Represents the stat cache of the working directory.
+ * It remembers the modification time, size and inode a file had when it
+ * was last hashed, so a file whose stat data is unchanged is not read
+ * again. Saved next to the staging area.
+ *
+ * @author Xiaoli Li
+ */
+public class StatCache {
+    /** Stores the mapping of file names to their cached stat data and SHA1. */
+    public static final File CACHE_FILE = join(GITLET_DIR, "stat-cache");
+
+    /** The stat data of a file and the SHA1 of its content at that time. */
+    private static class Entry implements Serializable {
+        /** The ID computed before it was declared, so existing stat caches still read. */
+        private static final long serialVersionUID = -6293961938453525275L;
+        private final long mtime;
+        private final long size;
+        private final String inode;
+        private final String sha1;
+
+        Entry(long mtime, long size, String inode, String sha1) {
+            this.mtime = mtime;
+            this.size = size;
+            this.inode = inode;
+            this.sha1 = sha1;
+        }
+
+        boolean matches(Entry other) {
+            return mtime == other.mtime && size == other.size
+                    && Objects.equals(inode, other.inode);
+        }
+    }
+
+    /** Cached entries, loaded on first use. */
+    private static TreeMap<String, Entry> entries;
+    /** Modification time of the cache file when it was loaded. */
+    private static long cacheMtime;
+    private static boolean changed;
+
+    /** Returns the SHA1 of the working file with given name.
+     * The cached hash is reused when the file's stat data is unchanged and the
+     * file was not modified in the same clock tick the cache was written,
+     * since such a change could not be told apart by its mtime.
+     * Files may be hashed by several threads at once. */
+    public static String sha1Of(String fileName) {
+        Entry stat = stat(fileName);
+        String cachedSHA1 = cachedSHA1(fileName, stat);
+        if (cachedSHA1 != null) {
+            return cachedSHA1;
+        }
+        String fileSHA1 = Blob.fileSHA1(fileName);
+        if (stat != null) {
+            remember(fileName, new Entry(stat.mtime, stat.size, stat.inode, fileSHA1));
+        }
+        return fileSHA1;
+    }
+
+    private static synchronized String cachedSHA1(String fileName, Entry stat) {
+        Entry cached = getEntries().get(fileName);
+        if (stat != null && cached != null && cached.matches(stat) && stat.mtime < cacheMtime) {
+            return cached.sha1;
+        }
+        return null;
+    }
+
+    private static synchronized void remember(String fileName, Entry entry) {
+        getEntries().put(fileName, entry);
+        changed = true;
+    }
+
+    /** Saves the cache if any hash was computed, dropping deleted files. */
+    public static synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (!join(CWD, iter.next().getKey()).exists()) {
+                iter.remove();
+            }
+        }
+        Journal.replace(CACHE_FILE, serialize(entries));
+        Entry cacheStat = stat(CACHE_FILE);
+        cacheMtime = cacheStat == null ? 0 : cacheStat.mtime;
+        changed = false;
+    }
+
+    /** Drops the loaded entries, so that the cache file is read again on next use. */
+    public static synchronized void reload() {
+        entries = null;
+        changed = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static synchronized TreeMap<String, Entry> getEntries() {
+        if (entries == null) {
+            if (CACHE_FILE.exists()) {
+                entries = readObject(CACHE_FILE, TreeMap.class);
+                Entry cacheStat = stat(CACHE_FILE);
+                cacheMtime = cacheStat == null ? 0 : cacheStat.mtime;
+            } else {
+                entries = new TreeMap<>();
+            }
+        }
+        return entries;
+    }
+
+    /** Returns the current stat data of a file, or null if it cannot be read. */
+    private static Entry stat(String fileName) {
+        return stat(join(CWD, fileName));
+    }
+
+    private static Entry stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            Object inode = attrs.fileKey();
+            return new Entry(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.size(),
+                    inode == null ? null : inode.toString(), null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Represents a gitlet tree object: the files and subdirectories of one
+ * directory, each mapped to the ID of its blob or tree. A tree is named by
+ * the SHA1 of its encoding, so a directory that did not change between two
+ * commits is the same tree object in both.
+ *
+ * @author Xiaoli Li
+ */
+public class Tree {
+    /** Starts every encoded tree. */
+    private static final byte[] MAGIC = "GTRE".getBytes(StandardCharsets.UTF_8);
+    /** Kinds of entries. */
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+    /** Approximate heap bytes of the tree object and its two maps. */
+    private static final int TREE_WEIGHT = 128;
+    /** Approximate heap bytes of one entry besides the characters of its
+     * name: a map node, the name and ID strings and the 40 hex digits. */
+    private static final int ENTRY_WEIGHT = 160;
+
+    /** Trees decoded during this run, weighed by their approximate size
+     * on the heap. They are shared by every caller, so their entries must
+     * not be modified. */
+    public static final ObjectCache<Tree> CACHE = new ObjectCache<>("tree", 8 << 20);
+
+    /** Maps file names in this directory to blob IDs. */
+    private final TreeMap<String, String> files = new TreeMap<>();
+    /** Maps subdirectory names to tree IDs. */
+    private final TreeMap<String, String> directories = new TreeMap<>();
+
+    /** Returns the blob IDs of the files in this directory, by name. */
+    public TreeMap<String, String> getFiles() {
+        return this.files;
+    }
+
+    /** Returns the tree IDs of the subdirectories of this directory, by name. */
+    public TreeMap<String, String> getDirectories() {
+        return this.directories;
+    }
+
+    /** Returns the ID of the tree made by applying CHANGES to the tree
+     * TREEID, or to an empty tree if TREEID is null. CHANGES maps file paths
+     * to blob IDs, or to "remove" as in the staging area. Only the trees on
+     * the paths of changed files are read and written again. */
+    public static String update(String treeID, Map<String, String> changes) {
+        String result = updateTree(treeID, changes);
+        return result != null ? result : new Tree().save();
+    }
+
+    /** Returns the mapping of every file path under the tree to its blob ID. */
+    public static TreeMap<String, String> flatten(String treeID) {
+        TreeMap<String, String> filesMapping = new TreeMap<>();
+        flatten(treeID, "", filesMapping);
+        return filesMapping;
+    }
+
+    private static void flatten(String treeID, String prefix, TreeMap<String, String> result) {
+        Tree tree = read(treeID);
+        for (Map.Entry<String, String> entry : tree.files.entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.directories.entrySet()) {
+            flatten(entry.getValue(), prefix + entry.getKey() + "/", result);
+        }
+    }
+
+    /** Returns the paths of the files that differ between the trees TREEID1
+     * and TREEID2, added, removed or changed. Either may be null for an empty
+     * tree. Subtrees with the same ID in both are not read. */
+    public static TreeSet<String> diff(String treeID1, String treeID2) {
+        TreeSet<String> paths = new TreeSet<>();
+        diff(treeID1, treeID2, "", paths);
+        return paths;
+    }
+
+    private static void diff(String treeID1, String treeID2, String prefix, Set<String> paths) {
+        if (Objects.equals(treeID1, treeID2)) {
+            return;
+        }
+        Tree tree1 = treeID1 == null ? new Tree() : read(treeID1);
+        Tree tree2 = treeID2 == null ? new Tree() : read(treeID2);
+        TreeSet<String> names = new TreeSet<>(tree1.files.keySet());
+        names.addAll(tree2.files.keySet());
+        for (String name : names) {
+            if (!Objects.equals(tree1.files.get(name), tree2.files.get(name))) {
+                paths.add(prefix + name);
+            }
+        }
+        names = new TreeSet<>(tree1.directories.keySet());
+        names.addAll(tree2.directories.keySet());
+        for (String name : names) {
+            diff(tree1.directories.get(name), tree2.directories.get(name),
+                    prefix + name + "/", paths);
+        }
+    }
+
+    /** Returns the ID of the blob of the file PATH under the tree TREEID,
+     * or of the tree of the directory PATH, or null if there is neither.
+     * Only the trees on the way to PATH are read. */
+    public static String lookup(String treeID, String path) {
+        Tree tree = directoryOf(treeID, path);
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (tree == null) {
+            return null;
+        }
+        return tree.files.containsKey(name) ? tree.files.get(name) : tree.directories.get(name);
+    }
+
+    /** Returns the ID of the blob of the file PATH under the tree TREEID,
+     * or null if there is no such file. */
+    public static String lookupFile(String treeID, String path) {
+        Tree tree = directoryOf(treeID, path);
+        return tree == null ? null : tree.files.get(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    /** Returns the tree of the directory holding PATH under the tree
+     * TREEID, or null if there is no such directory. */
+    private static Tree directoryOf(String treeID, String path) {
+        String[] names = path.split("/");
+        String id = treeID;
+        for (int i = 0; i < names.length - 1 && id != null; i += 1) {
+            id = read(id).directories.get(names[i]);
+        }
+        return id == null ? null : read(id);
+    }
+
+    /** Same as update, but returns null when the resulting tree is empty,
+     * so that the directory disappears from its parent. */
+    private static String updateTree(String treeID, Map<String, String> changes) {
+        Tree tree = new Tree();
+        if (treeID != null) {
+            Tree old = read(treeID);
+            tree.files.putAll(old.files);
+            tree.directories.putAll(old.directories);
+        }
+        TreeMap<String, TreeMap<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash), d -> new TreeMap<>())
+                        .put(path.substring(slash + 1), entry.getValue());
+            } else if (entry.getValue().equals("remove")) {
+                tree.files.remove(path);
+            } else {
+                tree.files.put(path, entry.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> entry : subChanges.entrySet()) {
+            String subtree = updateTree(tree.directories.get(entry.getKey()), entry.getValue());
+            if (subtree == null) {
+                tree.directories.remove(entry.getKey());
+            } else {
+                tree.directories.put(entry.getKey(), subtree);
+            }
+        }
+        if (tree.files.isEmpty() && tree.directories.isEmpty()) {
+            return null;
+        }
+        return tree.save();
+    }
+
+    /** Returns the approximate heap size of the decoded tree, several times
+     * that of its encoding. */
+    private long weight() {
+        long weight = TREE_WEIGHT;
+        for (String name : files.keySet()) {
+            weight += ENTRY_WEIGHT + name.length();
+        }
+        for (String name : directories.keySet()) {
+            weight += ENTRY_WEIGHT + name.length();
+        }
+        return weight;
+    }
+
+    /** Saves the tree unless an identical one exists, and returns its ID. */
+    private String save() {
+        byte[] bytes = encode();
+        String treeID = sha1(bytes);
+        if (!ObjectStore.contains(treeID, ObjectStore.TREE)) {
+            ObjectStore.write(treeID, ObjectStore.TREE, new ByteArrayInputStream(bytes));
+        }
+        return treeID;
+    }
+
+    /** Returns the encoding of the tree: MAGIC, the number of entries, then
+     * each entry's length-prefixed name, kind and raw SHA1, sorted by name. */
+    private byte[] encode() {
+        TreeMap<String, String> entries = new TreeMap<>(files);
+        entries.putAll(directories);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeByte(directories.containsKey(entry.getKey()) ? DIRECTORY : FILE);
+                out.write(hexToBytes(entry.getValue()));
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Checks if BYTES is an encoded tree. */
+    public static boolean isTree(byte[] bytes) {
+        return bytes.length >= MAGIC.length
+                && Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /** Returns the tree with given ID, decoding it only the first time
+     * it is asked for. */
+    private static Tree read(String treeID) {
+        Tree tree = CACHE.get(treeID);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] bytes = ObjectStore.read(treeID, ObjectStore.TREE);
+        if (bytes == null || !isTree(bytes)) {
+            throw error("Tree %s is missing.", treeID);
+        }
+        tree = decode(bytes);
+        CACHE.put(treeID, tree, tree.weight());
+        return tree;
+    }
+
+    /** Returns the tree encoded as BYTES. */
+    public static Tree decode(byte[] bytes) {
+        Tree tree = new Tree();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.skipBytes(MAGIC.length);
+            int size = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < size; i += 1) {
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                byte kind = in.readByte();
+                in.readFully(id);
+                TreeMap<String, String> entries = kind == DIRECTORY ? tree.directories : tree.files;
+                entries.put(new String(name, StandardCharsets.UTF_8), bytesToHex(id));
+            }
+        } catch (IOException excp) {
+            throw error("Internal error decoding tree.");
+        }
+        return tree;
+    }
+}
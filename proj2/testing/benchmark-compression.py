@@ -0,0 +1,96 @@
+import os, random, sys, time
+from getopt import getopt, GetoptError
+from os.path import abspath, join
+from shutil import rmtree
+from subprocess import check_call, DEVNULL
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 benchmark-compression.py [--progdir=DIR] [--files=N] [--size=KB]
+
+Compares the size of .gitlet/objects and the latency of switching branches
+with compressed objects (the default) against raw objects
+(-Dgitlet.compress=false).  DIR is the directory containing the gitlet
+classes (default ..).
+"""
+
+WORDS = ("public static void return final private String commit blob "
+         "file mapping branch merge parent index object stream").split()
+
+def text(rnd, kbytes):
+    """Source-like text of about KBYTES kilobytes."""
+    lines = []
+    size = 0
+    while size < kbytes * 1024:
+        line = " " * rnd.choice((0, 4, 8)) + " ".join(rnd.choice(WORDS)
+                                                   for _ in range(rnd.randint(3, 10)))
+        lines.append(line)
+        size += len(line) + 1
+    return "\n".join(lines) + "\n"
+
+def gitlet(progdir, compress, *args):
+    flags = [] if compress else ["-Dgitlet.compress=false"]
+    check_call(["java", "-cp", progdir] + flags + ["gitlet.Main"] + list(args),
+               stdout=DEVNULL)
+
+def du(directory):
+    total = 0
+    for root, _, files in os.walk(directory):
+        total += sum(os.path.getsize(join(root, f)) for f in files)
+    return total
+
+def run(progdir, compress, nfiles, kbytes):
+    """Commits NFILES files on master and a modified copy on another branch,
+    then times switching between the two.  Returns (bytes, seconds)."""
+    rnd = random.Random(61)
+    here = os.getcwd()
+    work = mkdtemp(prefix="gitlet-bench-")
+    try:
+        os.chdir(work)
+        gitlet(progdir, compress, "init")
+        names = ["f{}.txt".format(i) for i in range(nfiles)]
+        for name in names:
+            with open(name, "w") as f:
+                f.write(text(rnd, kbytes))
+            gitlet(progdir, compress, "add", name)
+        gitlet(progdir, compress, "commit", "first")
+        gitlet(progdir, compress, "branch", "other")
+        for name in names:
+            with open(name, "a") as f:
+                f.write(text(rnd, 1))
+            gitlet(progdir, compress, "add", name)
+        gitlet(progdir, compress, "commit", "second")
+        size = du(join(".gitlet", "objects"))
+        start = time.perf_counter()
+        for _ in range(5):
+            gitlet(progdir, compress, "checkout", "other")
+            gitlet(progdir, compress, "checkout", "master")
+        return size, (time.perf_counter() - start) / 10
+    finally:
+        os.chdir(here)
+        rmtree(work)
+
+def main():
+    try:
+        opts, _ = getopt(sys.argv[1:], "", ["progdir=", "files=", "size="])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir, nfiles, kbytes = abspath(".."), 20, 256
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = abspath(val)
+        elif opt == "--files":
+            nfiles = int(val)
+        elif opt == "--size":
+            kbytes = int(val)
+
+    print("{} files of {} KB, two versions each".format(nfiles, kbytes))
+    print("{:>12} {:>14} {:>14}".format("objects", "size (KB)", "checkout (s)"))
+    print("-" * 42)
+    for label, compress in (("raw", False), ("compressed", True)):
+        size, seconds = run(progdir, compress, nfiles, kbytes)
+        print("{:>12} {:>14} {:>14.3f}".format(label, size // 1024, seconds))
+
+if __name__ == "__main__":
+    main()
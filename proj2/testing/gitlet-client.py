@@ -0,0 +1,51 @@
+import os, socket, struct, sys
+from os.path import abspath, dirname, join
+
+USAGE = """\
+Usage: python3 gitlet-client.py ARGS
+
+Sends a gitlet command to the daemon started in the current directory with
+"java gitlet.Main daemon" and prints its output, without starting a JVM.
+When no daemon is running, runs "java gitlet.Main ARGS" instead, with the
+classes found in $GITLET_PROGDIR (default ..).
+"""
+
+def send(args):
+    """Sends ARGS to the daemon and prints its reply.  Returns False if no
+    daemon is listening.  A request is the number of arguments as a 4-byte
+    big-endian integer, then each argument as a 2-byte length and its UTF-8
+    bytes; the reply is the command's output, ended by closing the socket."""
+    path = join(".gitlet", "daemon.sock")
+    if not os.path.exists(path):
+        return False
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    try:
+        sock.connect(path)
+    except OSError:
+        return False
+    with sock:
+        request = [struct.pack(">i", len(args))]
+        for arg in args:
+            data = arg.encode("utf-8")
+            request.append(struct.pack(">H", len(data)) + data)
+        sock.sendall(b"".join(request))
+        out = sys.stdout.buffer
+        while True:
+            chunk = sock.recv(1 << 16)
+            if not chunk:
+                break
+            out.write(chunk)
+        out.flush()
+    return True
+
+def main():
+    args = sys.argv[1:]
+    if args in (["-h"], ["--help"]):
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    if not send(args):
+        progdir = os.environ.get("GITLET_PROGDIR", abspath(join(dirname(__file__), "..")))
+        os.execvp("java", ["java", "-cp", progdir, "gitlet.Main"] + args)
+
+if __name__ == "__main__":
+    main()
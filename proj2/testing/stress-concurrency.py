@@ -0,0 +1,150 @@
+import os, re, sys
+from collections import Counter
+from concurrent.futures import ThreadPoolExecutor
+from getopt import getopt, GetoptError
+from os.path import abspath, exists, join
+from shutil import rmtree
+from subprocess import run as run_process, PIPE, STDOUT
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 stress-concurrency.py [--progdir=DIR] [--workers=N] [--rounds=R]
+
+Runs N workers at once against one repository.  In each of R rounds a
+worker adds and commits a file of its own, creates a branch whose name the
+other workers use too, and runs status and log.  Every command must either
+succeed or fail with one of gitlet's messages for lost races, and the
+repository must then be intact: no lock or journal left behind, one commit
+on master per successful commit, every branch naming a commit, and every
+file whose add succeeded committed with its contents.  DIR is the directory
+containing the gitlet classes (default ..).
+"""
+
+# Messages of commands that lost a race, which must fail and change nothing.
+RACE_MESSAGES = (
+    re.compile(r"No changes added to the commit\."),
+    re.compile(r"A branch with that name already exists\."),
+    re.compile(r"Unable to lock \S+: another gitlet process is running\..*"),
+    re.compile(r"\S+ was changed by another gitlet process\."),
+)
+
+def gitlet(progdir, *args):
+    """Runs gitlet with ARGS and returns its output, stripped."""
+    result = run_process(["java", "-cp", progdir, "gitlet.Main"] + list(args),
+                         stdout=PIPE, stderr=STDOUT, universal_newlines=True)
+    return result.stdout.strip()
+
+def outcome(output):
+    """Classifies OUTPUT as "ok", "race" or "error"."""
+    if output == "":
+        return "ok"
+    if any(pattern.fullmatch(output) for pattern in RACE_MESSAGES):
+        return "race"
+    return "error"
+
+def worker(progdir, number, rounds):
+    """Runs the commands of one worker.  Returns a list of
+    (command, output, outcome) and the files it added successfully."""
+    results = []
+    added = {}
+    for r in range(rounds):
+        name = "w{}-{}.txt".format(number, r)
+        contents = "worker {} round {}\n".format(number, r)
+        with open(name, "w") as f:
+            f.write(contents)
+        for args in (("add", name), ("commit", "worker {} round {}".format(number, r)),
+                     ("branch", "b{}".format(r)), ("status",), ("log",)):
+            output = gitlet(progdir, *args)
+            kind = "ok" if args[0] in ("status", "log") and "Exception" not in output \
+                else outcome(output)
+            results.append((args, output, kind))
+            if args[0] == "add" and kind == "ok":
+                added[name] = contents
+    return results, added
+
+def check(condition, message, problems):
+    if not condition:
+        problems.append(message)
+
+def validate(progdir, results, added):
+    """Returns the problems found in the repository after the run."""
+    problems = []
+    for args, output, kind in results:
+        check(kind != "error", "{}: {}".format(" ".join(args), output), problems)
+
+    leftovers = []
+    for root, _, files in os.walk(".gitlet"):
+        leftovers += [join(root, f) for f in files
+                      if f.endswith(".lock") or f.startswith("journal-")]
+    check(not leftovers, "left behind: {}".format(" ".join(leftovers)), problems)
+
+    check("=== Branches ===" in gitlet(progdir, "status"), "status fails", problems)
+    log = gitlet(progdir, "log")
+    commits = len(re.findall(r"^commit [0-9a-f]{40}$", log, re.M))
+    made = sum(1 for args, _, kind in results if args[0] == "commit" and kind == "ok")
+    check(commits == made + 1,
+          "master has {} commits, expected {}".format(commits, made + 1), problems)
+
+    known = set(re.findall(r"^commit ([0-9a-f]{40})$", gitlet(progdir, "global-log"), re.M))
+    heads = join(".gitlet", "refs", "heads")
+    for branch in os.listdir(heads):
+        with open(join(heads, branch)) as f:
+            target = f.read().strip()
+        check(target in known, "branch {} names unknown commit {}".format(branch, target),
+              problems)
+
+    gitlet(progdir, "commit", "final")
+    for name, contents in sorted(added.items()):
+        os.remove(name)
+        output = gitlet(progdir, "checkout", "--", name)
+        check(output == "" and exists(name), "{} not committed: {}".format(name, output),
+              problems)
+        if exists(name):
+            with open(name) as f:
+                check(f.read() == contents, "{} has wrong contents".format(name), problems)
+    return problems
+
+def main():
+    try:
+        opts, _ = getopt(sys.argv[1:], "", ["progdir=", "workers=", "rounds="])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir, workers, rounds = abspath(".."), 8, 5
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = abspath(val)
+        elif opt == "--workers":
+            workers = int(val)
+        elif opt == "--rounds":
+            rounds = int(val)
+
+    here = os.getcwd()
+    work = mkdtemp(prefix="gitlet-stress-")
+    try:
+        os.chdir(work)
+        gitlet(progdir, "init")
+        with ThreadPoolExecutor(workers) as pool:
+            runs = list(pool.map(lambda n: worker(progdir, n, rounds), range(workers)))
+        results = [result for run, _ in runs for result in run]
+        added = {name: text for _, files in runs for name, text in files.items()}
+
+        counts = Counter((args[0], kind) for args, _, kind in results)
+        print("{} workers, {} rounds".format(workers, rounds))
+        print("{:>8} {:>6} {:>6} {:>6}".format("command", "ok", "race", "error"))
+        for command in ("add", "commit", "branch", "status", "log"):
+            print("{:>8} {:>6} {:>6} {:>6}".format(command, counts[(command, "ok")],
+                                                  counts[(command, "race")],
+                                                  counts[(command, "error")]))
+        problems = validate(progdir, results, added)
+    finally:
+        os.chdir(here)
+        rmtree(work)
+    for problem in problems:
+        print("FAILED: " + problem)
+    if problems:
+        sys.exit(1)
+    print("Repository intact.")
+
+if __name__ == "__main__":
+    main()
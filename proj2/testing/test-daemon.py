@@ -0,0 +1,149 @@
+import os, re, sys, time
+from getopt import getopt, GetoptError
+from os.path import abspath, dirname, exists, join
+from shutil import rmtree
+from subprocess import Popen, run as run_process, DEVNULL, PIPE, STDOUT
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 test-daemon.py [--progdir=DIR]
+
+Starts "java gitlet.Main daemon" in a new repository and runs commands
+through both clients, java gitlet.Client and gitlet-client.py, checking
+their output and that each sees the changes made through the other.  An
+internal error must reach the client as one line, as a gitlet error does.
+The Python client is given no classes to fall back on, so its commands can
+only succeed through the daemon.  The daemon must then stop on "daemon stop" and
+remove its socket.  DIR is the directory containing the gitlet classes
+(default ..).
+"""
+
+# How long to wait for the daemon to start or stop, in seconds.
+TIMEOUT = 10
+SOCKET = join(".gitlet", "daemon.sock")
+CLIENT_SCRIPT = join(dirname(abspath(__file__)), "gitlet-client.py")
+
+def client(progdir, kind, *args):
+    """Runs gitlet with ARGS through the client KIND, "java" or "python",
+    and returns its output."""
+    if kind == "java":
+        command = ["java", "-cp", progdir, "gitlet.Client"]
+        env = None
+    else:
+        command = [sys.executable, CLIENT_SCRIPT]
+        env = dict(os.environ, GITLET_PROGDIR=os.getcwd())
+    result = run_process(command + list(args), stdout=PIPE, stderr=STDOUT,
+                         universal_newlines=True, env=env)
+    return result.stdout
+
+def wait_for(condition):
+    """Waits up to TIMEOUT for CONDITION to hold and returns whether it does."""
+    deadline = time.time() + TIMEOUT
+    while not condition():
+        if time.time() > deadline:
+            return False
+        time.sleep(0.1)
+    return True
+
+def write(name, contents):
+    with open(name, "w") as f:
+        f.write(contents)
+
+def check(condition, message, problems):
+    if not condition:
+        problems.append(message)
+
+def expect(progdir, kind, args, pattern, problems):
+    """Runs ARGS through the client KIND and checks that its whole output
+    matches the regular expression PATTERN.  Returns the match, or None."""
+    output = client(progdir, kind, *args)
+    match = re.fullmatch(pattern, output, re.S)
+    check(match is not None, "{} client, {}: {!r}".format(kind, " ".join(args), output),
+          problems)
+    return match
+
+def corrupt_error(progdir, problems):
+    """Damages the initial commit, before the daemon has read it, and checks
+    that the failure reaches the client as a single line.  The commit is
+    then restored."""
+    log = run_process(["java", "-cp", progdir, "gitlet.Main", "log"], stdout=PIPE,
+                      universal_newlines=True).stdout
+    commit_id = re.search(r"^commit ([0-9a-f]{40})$", log, re.M).group(1)
+    path = join(".gitlet", "objects", commit_id[:2], commit_id[2:])
+    with open(path, "rb") as f:
+        saved = f.read()
+    with open(path, "wb") as f:
+        f.write(b"garbage")
+    expect(progdir, "python", ("log",), r"Internal error: [^\n]+\n", problems)
+    with open(path, "wb") as f:
+        f.write(saved)
+
+def exercise(progdir, problems):
+    """Runs the commands through the daemon, alternating clients."""
+    corrupt_error(progdir, problems)
+    write("a.txt", "one\n")
+    expect(progdir, "java", ("add", "a.txt"), "", problems)
+    expect(progdir, "python", ("commit", "first"), "", problems)
+    expect(progdir, "java", ("status",),
+           r"=== Branches ===\n\*master\n\n=== Staged Files ===\n\n"
+           r"=== Removed Files ===\n\n=== Modifications Not Staged For Commit ===\n\n"
+           r"=== Untracked Files ===\n\n", problems)
+    found = expect(progdir, "python", ("find", "first"), r"([0-9a-f]{40})\n", problems)
+
+    write("a.txt", "two\n")
+    expect(progdir, "python", ("add", "a.txt"), "", problems)
+    expect(progdir, "java", ("commit", "second"), "", problems)
+    expect(progdir, "java", ("commit", "third"), r"No changes added to the commit\.\n",
+           problems)
+    expect(progdir, "python", ("log",),
+           r"(===\ncommit [0-9a-f]{40}\nDate: [^\n]+\n[^\n]+\n \n){3}", problems)
+    expect(progdir, "python", ("nosuchcommand",), r"No command with that name exists\.\n",
+           problems)
+
+    if found:
+        expect(progdir, "java", ("checkout", found.group(1), "--", "a.txt"), "", problems)
+        with open("a.txt") as f:
+            check(f.read() == "one\n", "checkout did not restore a.txt", problems)
+
+def main():
+    try:
+        opts, _ = getopt(sys.argv[1:], "", ["progdir="])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir = abspath("..")
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = abspath(val)
+
+    here = os.getcwd()
+    work = mkdtemp(prefix="gitlet-daemon-")
+    problems = []
+    daemon = None
+    try:
+        os.chdir(work)
+        run_process(["java", "-cp", progdir, "gitlet.Main", "init"], stdout=DEVNULL)
+        daemon = Popen(["java", "-cp", progdir, "gitlet.Main", "daemon"],
+                       stdout=DEVNULL, stderr=DEVNULL)
+        if not wait_for(lambda: exists(SOCKET)):
+            problems.append("daemon did not start")
+        else:
+            exercise(progdir, problems)
+            expect(progdir, "python", ("daemon", "stop"), "", problems)
+            check(wait_for(lambda: daemon.poll() is not None), "daemon did not stop",
+                  problems)
+            check(not exists(SOCKET), "daemon left its socket behind", problems)
+    finally:
+        if daemon is not None and daemon.poll() is None:
+            daemon.kill()
+            daemon.wait()
+        os.chdir(here)
+        rmtree(work)
+    for problem in problems:
+        print("FAILED: " + problem)
+    if problems:
+        sys.exit(1)
+    print("Daemon served both clients.")
+
+if __name__ == "__main__":
+    main()